@@ -0,0 +1,110 @@
+package dke;
+
+import java.awt.geom.Point2D;
+import java.util.Random;
+
+// ArenaData generates synthetic feature vectors shaped like the ones the KNN models index, for the benchmarks.
+// A single robot random-walks around an 800x600 arena under Robocode's movement rules (accelerate by 1, brake by 2, top speed 8,
+// turn rate 10 - 0.75 * |velocity| degrees per tick, bounce off the walls), and vector i is the composite feature vector of
+// steps [i, i + dimensions / 4) of that walk: (heading, x, y, velocity) per step, the layout EnvironmentStateTuple.writeFeatureVector uses.
+// Consecutive vectors therefore overlap and cluster the way a real observation log does, rather than filling the space uniformly.
+public final class ArenaData {
+  public static final double ARENA_WIDTH = 800;
+  public static final double ARENA_HEIGHT = 600;
+  private static final double HALF_ROBOT_WIDTH = 18;
+
+  private ArenaData() {
+  }
+
+  // Returns 'count' composite feature vectors of length 'dimensions' (a multiple of EnvironmentStateTuple.DIMENSION_COUNT).
+  public static double[][] featureVectors(int count, int dimensions, long seed) {
+    double[] walk = walk(count + dimensions / EnvironmentStateTuple.DIMENSION_COUNT, seed);
+    double[][] featureVectors = new double[count][];
+    for(int i = 0; i < count; i++) {
+      featureVectors[i] = new double[dimensions];
+      System.arraycopy(walk, i * EnvironmentStateTuple.DIMENSION_COUNT, featureVectors[i], 0, dimensions);
+    }
+    return featureVectors;
+  }
+
+  // Returns the same vectors as featureVectors(count, dimensions, seed), packed one after another into a single array (the FlatKdTree.bulkLoad layout).
+  public static double[] packedFeatureVectors(int count, int dimensions, long seed) {
+    double[] walk = walk(count + dimensions / EnvironmentStateTuple.DIMENSION_COUNT, seed);
+    double[] featureVectors = new double[count * dimensions];
+    for(int i = 0; i < count; i++) {
+      System.arraycopy(walk, i * EnvironmentStateTuple.DIMENSION_COUNT, featureVectors, i * dimensions, dimensions);
+    }
+    return featureVectors;
+  }
+
+  // Returns one weight per dimension, scaling each attribute of a step to roughly the same range.
+  public static double[] weights(int dimensions) {
+    double[] weights = new double[dimensions];
+    for(int i = 0; i < dimensions; i += EnvironmentStateTuple.DIMENSION_COUNT) {
+      weights[i] = 1.0 / (2 * Math.PI);     // heading
+      weights[i + 1] = 1.0 / ARENA_WIDTH;   // x
+      weights[i + 2] = 1.0 / ARENA_HEIGHT;  // y
+      weights[i + 3] = 1.0 / 16;            // velocity
+    }
+    return weights;
+  }
+
+  // Returns 'count' observations of an enemy and of self each random-walking the arena (with independent walks), one tick apart.
+  // timeSinceLastShotFired counts up and resets every 20 to 40 ticks, as if each robot were firing.
+  public static EnvironmentStateSequence observations(int count, long seed) {
+    double[] enemyWalk = walk(count, seed);
+    double[] selfWalk = walk(count, seed + 1);
+    Random random = new Random(seed);
+    EnvironmentStateSequence observations = new EnvironmentStateSequence();
+    observations.ensureCapacity(count);
+    long enemyTimeSinceLastShotFired = 0, selfTimeSinceLastShotFired = 0;
+    for(int i = 0; i < count; i++) {
+      int offset = i * EnvironmentStateTuple.DIMENSION_COUNT;
+      observations.add(new RobotStateTuple(new Point2D.Double(enemyWalk[offset + 1], enemyWalk[offset + 2]), enemyWalk[offset], enemyWalk[offset + 3], enemyTimeSinceLastShotFired),
+                       new RobotStateTuple(new Point2D.Double(selfWalk[offset + 1], selfWalk[offset + 2]), selfWalk[offset], selfWalk[offset + 3], selfTimeSinceLastShotFired),
+                       i);
+      enemyTimeSinceLastShotFired = enemyTimeSinceLastShotFired > 20 + random.nextInt(20) ? 0 : enemyTimeSinceLastShotFired + 1;
+      selfTimeSinceLastShotFired = selfTimeSinceLastShotFired > 20 + random.nextInt(20) ? 0 : selfTimeSinceLastShotFired + 1;
+    }
+    return observations;
+  }
+
+  // Returns 'steps' consecutive (heading, x, y, velocity) states of the walk, packed.
+  static double[] walk(int steps, long seed) {
+    Random random = new Random(seed);
+    double[] states = new double[steps * EnvironmentStateTuple.DIMENSION_COUNT];
+    double heading = random.nextDouble() * 2 * Math.PI;
+    double x = ARENA_WIDTH / 2, y = ARENA_HEIGHT / 2;
+    double velocity = 0;
+    double targetVelocity = 8;
+    double turnDirection = 1;
+    for(int i = 0; i < steps; i++) {
+      // change plans every so often, like a random movement strategy does
+      if(random.nextInt(20) == 0) {
+        targetVelocity = random.nextInt(17) - 8;
+        turnDirection = random.nextInt(3) - 1;
+      }
+      if(velocity < targetVelocity) {
+        velocity = Math.min(targetVelocity, velocity + (velocity < 0 ? 2 : 1));
+      } else if(velocity > targetVelocity) {
+        velocity = Math.max(targetVelocity, velocity - (velocity > 0 ? 2 : 1));
+      }
+      heading += turnDirection * Math.toRadians(10 - 0.75 * Math.abs(velocity));
+      heading = (heading % (2 * Math.PI) + 2 * Math.PI) % (2 * Math.PI);
+      x += velocity * Math.sin(heading);
+      y += velocity * Math.cos(heading);
+      if(x < HALF_ROBOT_WIDTH || x > ARENA_WIDTH - HALF_ROBOT_WIDTH || y < HALF_ROBOT_WIDTH || y > ARENA_HEIGHT - HALF_ROBOT_WIDTH) {
+        x = Math.max(HALF_ROBOT_WIDTH, Math.min(ARENA_WIDTH - HALF_ROBOT_WIDTH, x));
+        y = Math.max(HALF_ROBOT_WIDTH, Math.min(ARENA_HEIGHT - HALF_ROBOT_WIDTH, y));
+        velocity = 0;     // hitting a wall stops the robot
+        targetVelocity = -targetVelocity;
+      }
+      int offset = i * EnvironmentStateTuple.DIMENSION_COUNT;
+      states[offset] = heading;
+      states[offset + 1] = x;
+      states[offset + 2] = y;
+      states[offset + 3] = velocity;
+    }
+    return states;
+  }
+}
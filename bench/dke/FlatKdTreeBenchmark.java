@@ -0,0 +1,102 @@
+package dke;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The KdTreeBenchmark measurements, repeated for FlatKdTree (the tree the KNN models use), with the same data and parameters so the two
+// can be compared directly. Queries go through a reused QueryContext, as they do in the models.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class FlatKdTreeBenchmark {
+  @State(Scope.Benchmark)
+  public static class Tree {
+    @Param({"4", "40", "120"})
+    public int dimensions;
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int treeSize;
+    @Param({"SqrEuclid", "WeightedSqrEuclid", "Manhattan", "WeightedManhattan"})
+    public String distance;
+    @Param({"false", "true"})
+    public boolean sizeLimited;
+
+    double[][] points;
+    double[][] insertions;
+    double[][] queries;
+    FlatKdTree tree;
+    FlatKdTree.QueryContext context;
+    int nextInsertion;
+    int nextQuery;
+
+    @Setup(Level.Trial)
+    public void generateData() {
+      points = ArenaData.featureVectors(treeSize, dimensions, 1);
+      insertions = ArenaData.featureVectors(KdTreeBenchmark.INSERTION_COUNT, dimensions, 2);
+      queries = ArenaData.featureVectors(KdTreeBenchmark.QUERY_COUNT, dimensions, 3);
+      context = new FlatKdTree.QueryContext();
+    }
+
+    // Built with addPoint rather than bulkLoad, so the tree has the same shape history as the KdTree it is compared with.
+    @Setup(Level.Iteration)
+    public void buildTree() {
+      tree = newTree(distance, dimensions, sizeLimited ? Integer.valueOf(treeSize) : null);
+      for(int i = 0; i < treeSize; i++) {
+        tree.addPoint(points[i], i);
+      }
+      nextInsertion = 0;
+      nextQuery = 0;
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Neighbors {
+    @Param({"1", "10", "40"})
+    public int k;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public void addPoint(Tree state) {
+    state.tree.addPoint(state.insertions[state.nextInsertion], state.treeSize + state.nextInsertion);
+    state.nextInsertion = (state.nextInsertion + 1) % KdTreeBenchmark.INSERTION_COUNT;
+  }
+
+  @Benchmark
+  public int nearestNeighbor(Tree state, Neighbors neighbors) {
+    double[] query = state.queries[state.nextQuery];
+    state.nextQuery = (state.nextQuery + 1) % KdTreeBenchmark.QUERY_COUNT;
+    return state.tree.nearestNeighbor(query, neighbors.k, state.context);
+  }
+
+  static FlatKdTree newTree(String distance, int dimensions, Integer sizeLimit) {
+    if("SqrEuclid".equals(distance)) {
+      return new FlatKdTree.SqrEuclid(dimensions, sizeLimit);
+    } else if("WeightedSqrEuclid".equals(distance)) {
+      FlatKdTree.WeightedSqrEuclid tree = new FlatKdTree.WeightedSqrEuclid(dimensions, sizeLimit);
+      tree.setWeights(ArenaData.weights(dimensions));
+      return tree;
+    } else if("Manhattan".equals(distance)) {
+      return new FlatKdTree.Manhattan(dimensions, sizeLimit);
+    } else if("WeightedManhattan".equals(distance)) {
+      FlatKdTree.WeightedManhattan tree = new FlatKdTree.WeightedManhattan(dimensions, sizeLimit);
+      tree.setWeights(ArenaData.weights(dimensions));
+      return tree;
+    }
+    throw new IllegalArgumentException("Unknown distance: " + distance);
+  }
+}
@@ -0,0 +1,63 @@
+package dke;
+
+// HeadlessRobot is a DkeRobot that runs without the Robocode engine.
+// The getters the models use return fields that the caller sets each tick (moveTo copies them from an observation), instead of asking the
+// engine's robot peer, which does not exist outside a battle. Nothing that would command the robot (setFire, setTurnGun..., etc.) may be called on it.
+public class HeadlessRobot extends DkeRobot {
+  public double x, y;
+  public double headingRadians;
+  public double velocity;
+  public long time;
+  public double battleFieldWidth, battleFieldHeight;
+
+  public HeadlessRobot(double battleFieldWidth, double battleFieldHeight) {
+    this.battleFieldWidth = battleFieldWidth;
+    this.battleFieldHeight = battleFieldHeight;
+    this.eastWall = battleFieldWidth;
+    this.northWall = battleFieldHeight;
+  }
+
+  // Places the robot where self was in observation 'index' of observationSequence, at that observation's time.
+  public void moveTo(EnvironmentStateSequence observationSequence, int index) {
+    x = observationSequence.selfXAt(index);
+    y = observationSequence.selfYAt(index);
+    headingRadians = observationSequence.selfHeadingAt(index);
+    velocity = observationSequence.selfVelocityAt(index);
+    time = observationSequence.timeAt(index);
+  }
+
+  @Override
+  public double getX() {
+    return x;
+  }
+
+  @Override
+  public double getY() {
+    return y;
+  }
+
+  @Override
+  public double getHeadingRadians() {
+    return headingRadians;
+  }
+
+  @Override
+  public double getVelocity() {
+    return velocity;
+  }
+
+  @Override
+  public long getTime() {
+    return time;
+  }
+
+  @Override
+  public double getBattleFieldWidth() {
+    return battleFieldWidth;
+  }
+
+  @Override
+  public double getBattleFieldHeight() {
+    return battleFieldHeight;
+  }
+}
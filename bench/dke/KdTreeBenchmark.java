@@ -0,0 +1,111 @@
+package dke;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Measures KdTree.addPoint and KdTree.nearestNeighbor on ArenaData feature vectors.
+// Every combination of the Tree parameters is benchmarked; nearestNeighbor is additionally run for every k.
+// Narrow the sweep from the command line, e.g. -p dimensions=40 -p treeSize=10000.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class KdTreeBenchmark {
+  static final int INSERTION_COUNT = 1 << 16;
+  static final int QUERY_COUNT = 1 << 10;
+
+  @State(Scope.Benchmark)
+  public static class Tree {
+    @Param({"4", "40", "120"})
+    public int dimensions;
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int treeSize;
+    @Param({"SqrEuclid", "WeightedSqrEuclid", "Manhattan", "WeightedManhattan"})
+    public String distance;
+    // a size-limited tree holds at most treeSize points, so every benchmarked addPoint also evicts the oldest point
+    @Param({"false", "true"})
+    public boolean sizeLimited;
+
+    double[][] points;
+    double[][] insertions;
+    double[][] queries;
+    Integer[] values;
+    KdTree<Integer> tree;
+    int nextInsertion;
+    int nextQuery;
+
+    @Setup(Level.Trial)
+    public void generateData() {
+      points = ArenaData.featureVectors(treeSize, dimensions, 1);
+      insertions = ArenaData.featureVectors(INSERTION_COUNT, dimensions, 2);
+      queries = ArenaData.featureVectors(QUERY_COUNT, dimensions, 3);
+      values = new Integer[treeSize + INSERTION_COUNT];     // boxed up front, so boxing is not part of the measurement
+      for(int i = 0; i < values.length; i++) {
+        values[i] = Integer.valueOf(i);
+      }
+    }
+
+    // An unlimited tree grows during an addPoint iteration, so it is rebuilt before each one.
+    @Setup(Level.Iteration)
+    public void buildTree() {
+      tree = newTree(distance, dimensions, sizeLimited ? Integer.valueOf(treeSize) : null);
+      for(int i = 0; i < treeSize; i++) {
+        tree.addPoint(points[i], values[i]);
+      }
+      nextInsertion = 0;
+      nextQuery = 0;
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Neighbors {
+    @Param({"1", "10", "40"})
+    public int k;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public void addPoint(Tree state) {
+    state.tree.addPoint(state.insertions[state.nextInsertion], state.values[state.treeSize + state.nextInsertion]);
+    state.nextInsertion = (state.nextInsertion + 1) % INSERTION_COUNT;
+  }
+
+  @Benchmark
+  public List<KdTree.Entry<Integer>> nearestNeighbor(Tree state, Neighbors neighbors) {
+    double[] query = state.queries[state.nextQuery];
+    state.nextQuery = (state.nextQuery + 1) % QUERY_COUNT;
+    return state.tree.nearestNeighbor(query, neighbors.k, false);
+  }
+
+  static KdTree<Integer> newTree(String distance, int dimensions, Integer sizeLimit) {
+    if("SqrEuclid".equals(distance)) {
+      return new KdTree.SqrEuclid<Integer>(dimensions, sizeLimit);
+    } else if("WeightedSqrEuclid".equals(distance)) {
+      KdTree.WeightedSqrEuclid<Integer> tree = new KdTree.WeightedSqrEuclid<Integer>(dimensions, sizeLimit);
+      tree.setWeights(ArenaData.weights(dimensions));
+      return tree;
+    } else if("Manhattan".equals(distance)) {
+      return new KdTree.Manhattan<Integer>(dimensions, sizeLimit);
+    } else if("WeightedManhattan".equals(distance)) {
+      KdTree.WeightedManhattan<Integer> tree = new KdTree.WeightedManhattan<Integer>(dimensions, sizeLimit);
+      tree.setWeights(ArenaData.weights(dimensions));
+      return tree;
+    }
+    throw new IllegalArgumentException("Unknown distance: " + distance);
+  }
+}
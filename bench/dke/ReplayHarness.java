@@ -0,0 +1,183 @@
+package dke;
+
+import java.awt.geom.Point2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+// ReplayHarness drives the targeting stack (MultipleStateKNNMovementModel + MultipleStateKNNTargetingModel, configured as
+// StateLoggingFireControlSystem configures them) through a stream of observations at full speed, without the Robocode engine.
+// Each tick it places a HeadlessRobot where self was, then times logStateObservation, target and predictFutureMovement,
+// and at the end reports ticks/second and per-call latency percentiles.
+//
+// Usage:
+//   java dke.ReplayHarness [ticks [seed]]     replays 'ticks' synthetic ArenaData observations (default 100000, seed 1)
+//   java dke.ReplayHarness -f <file>          replays recorded observations, one per line:
+//     time enemyX enemyY enemyHeading enemyVelocity enemyTimeSinceLastShotFired selfX selfY selfHeading selfVelocity selfTimeSinceLastShotFired
+//   java dke.ReplayHarness -o <file>          replays an observation log the robot saved to its data directory (see ObservationLogStore)
+public class ReplayHarness {
+  static final String ENEMY_NAME = "enemy";
+
+  public HeadlessRobot robot;
+  public MultipleStateKNNMovementModel movementModel;
+  public MultipleStateKNNTargetingModel targetingModel;
+  public int numberOfEnemyStepsToPredict;
+  public double firePower;
+
+  public LatencyRecorder logLatencies;
+  public LatencyRecorder predictLatencies;
+  public LatencyRecorder targetLatencies;
+  public long elapsedNanos;
+  public int ticks;
+
+  public ReplayHarness() {
+    robot = new HeadlessRobot(ArenaData.ARENA_WIDTH, ArenaData.ARENA_HEIGHT);
+    numberOfEnemyStepsToPredict = 60;
+    firePower = 2.001;
+    movementModel = new MultipleStateKNNMovementModel(robot, 30, 1, 60);
+    targetingModel = new MultipleStateKNNTargetingModel(robot, numberOfEnemyStepsToPredict);
+    targetingModel.ensembleSize = 8;
+    movementModel.minimumNeighborsPerQuery = targetingModel.ensembleSize;
+  }
+
+  // Feeds every observation of 'observations' through the models, one tick per observation, recording the latency of each call.
+  public void replay(EnvironmentStateSequence observations) {
+    logLatencies = new LatencyRecorder(observations.size());
+    predictLatencies = new LatencyRecorder(observations.size());
+    targetLatencies = new LatencyRecorder(observations.size());
+    ticks = observations.size();
+
+    long startTime = System.nanoTime();
+    for(int i = 0; i < observations.size(); i++) {
+      robot.moveTo(observations, i);
+      EnvironmentStateTuple observation = observations.get(i);
+
+      // aim, then predict (as painting does), in the order StateLoggingFireControlSystem runs them, so the prediction is served
+      // from the neighbors the ensemble's query cached
+      long t0 = System.nanoTime();
+      movementModel.logStateObservation(ENEMY_NAME, observation);
+      long t1 = System.nanoTime();
+      targetingModel.target(ENEMY_NAME, movementModel, firePower);
+      long t2 = System.nanoTime();
+      movementModel.predictFutureMovement(ENEMY_NAME, numberOfEnemyStepsToPredict);
+      long t3 = System.nanoTime();
+
+      logLatencies.record(t1 - t0);
+      targetLatencies.record(t2 - t1);
+      predictLatencies.record(t3 - t2);
+    }
+    elapsedNanos = System.nanoTime() - startTime;
+  }
+
+  public void printReport() {
+    System.out.printf("%d ticks in %.3f s: %.0f ticks/s%n", ticks, elapsedNanos / 1e9, ticks / (elapsedNanos / 1e9));
+    System.out.printf("%-24s %10s %10s %10s %10s %10s %10s%n", "call (us)", "mean", "p50", "p90", "p99", "p99.9", "max");
+    logLatencies.printRow("logStateObservation");
+    targetLatencies.printRow("target");
+    predictLatencies.printRow("predictFutureMovement");
+  }
+
+  // Reads recorded observations in the format described at the top of this file. Blank lines and lines starting with '#' are skipped.
+  public static EnvironmentStateSequence readObservations(String fileName) throws IOException {
+    EnvironmentStateSequence observations = new EnvironmentStateSequence();
+    BufferedReader reader = new BufferedReader(new FileReader(fileName));
+    try {
+      String line;
+      while((line = reader.readLine()) != null) {
+        line = line.trim();
+        if(line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split("\\s+");
+        if(fields.length != 11) {
+          throw new IOException("Expected 11 fields, got " + fields.length + ": " + line);
+        }
+        observations.add(new RobotStateTuple(new Point2D.Double(Double.parseDouble(fields[1]), Double.parseDouble(fields[2])),
+                                             Double.parseDouble(fields[3]), Double.parseDouble(fields[4]), Long.parseLong(fields[5])),
+                         new RobotStateTuple(new Point2D.Double(Double.parseDouble(fields[6]), Double.parseDouble(fields[7])),
+                                             Double.parseDouble(fields[8]), Double.parseDouble(fields[9]), Long.parseLong(fields[10])),
+                         Long.parseLong(fields[0]));
+      }
+    } finally {
+      reader.close();
+    }
+    return observations;
+  }
+
+  public static void main(String[] args) throws IOException {
+    EnvironmentStateSequence observations;
+    if(args.length >= 2 && args[0].equals("-f")) {
+      observations = readObservations(args[1]);
+    } else if(args.length >= 2 && args[0].equals("-o")) {
+      InputStream in = new BufferedInputStream(new FileInputStream(args[1]));
+      try {
+        observations = ObservationLogFormat.read(in);
+      } finally {
+        in.close();
+      }
+    } else {
+      int ticks = args.length >= 1 ? Integer.parseInt(args[0]) : 100000;
+      long seed = args.length >= 2 ? Long.parseLong(args[1]) : 1;
+      observations = ArenaData.observations(ticks, seed);
+    }
+
+    ReplayHarness harness = new ReplayHarness();
+    harness.replay(observations);
+    harness.printReport();
+  }
+
+  // Collects one latency sample (in nanoseconds) per call.
+  public static class LatencyRecorder {
+    private long[] samples;
+    private int count;
+    private boolean sorted;
+
+    public LatencyRecorder(int expectedSampleCount) {
+      samples = new long[Math.max(1, expectedSampleCount)];
+      count = 0;
+      sorted = true;
+    }
+
+    public void record(long nanos) {
+      if(count == samples.length) {
+        samples = Arrays.copyOf(samples, samples.length * 2);
+      }
+      samples[count++] = nanos;
+      sorted = false;
+    }
+
+    public int count() {
+      return count;
+    }
+
+    public double mean() {
+      long sum = 0;
+      for(int i = 0; i < count; i++) {
+        sum += samples[i];
+      }
+      return count > 0 ? (double)sum / count : 0;
+    }
+
+    // Returns the smallest sample that at least 'percentile' percent of the samples are less than or equal to (nearest-rank).
+    public long percentile(double percentile) {
+      if(count == 0) {
+        return 0;
+      }
+      if(!sorted) {
+        Arrays.sort(samples, 0, count);
+        sorted = true;
+      }
+      int rank = (int)Math.ceil(percentile / 100 * count);
+      return samples[Math.max(0, Math.min(count - 1, rank - 1))];
+    }
+
+    void printRow(String name) {
+      System.out.printf("%-24s %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n", name, mean() / 1e3,
+                        percentile(50) / 1e3, percentile(90) / 1e3, percentile(99) / 1e3, percentile(99.9) / 1e3, percentile(100) / 1e3);
+    }
+  }
+}
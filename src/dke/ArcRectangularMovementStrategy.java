@@ -2,8 +2,6 @@ package dke;
 
 import java.awt.Graphics2D;
 import java.awt.geom.Point2D;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.Random;
 
 import robocode.HitByBulletEvent;
@@ -11,7 +9,7 @@ import robocode.HitRobotEvent;
 import robocode.HitWallEvent;
 import robocode.Rules;
 
-public class ArcRectangularMovementStrategy implements MovementStrategy {
+public class ArcRectangularMovementStrategy implements MovementStrategy, Paintable {
   public enum State {
     Initial, DrivingNorth, DrivingEast, DrivingSouth, DrivingWest
   }
@@ -116,14 +114,8 @@ public class ArcRectangularMovementStrategy implements MovementStrategy {
   }
 
   public void onPaint(Graphics2D g) {
-    try {
-      Method m = currentMovementInstruction.getClass().getMethod("onPaint", new Class[]{Graphics2D.class});
-      m.invoke(currentMovementInstruction, new Object[]{g});
-    } catch (SecurityException e) {
-    } catch (NoSuchMethodException e) {
-    } catch (IllegalArgumentException e) {
-    } catch (IllegalAccessException e) {
-    } catch (InvocationTargetException e) {
+    if(currentMovementInstruction instanceof Paintable) {
+      ((Paintable)currentMovementInstruction).onPaint(g);
     }
   }
 }
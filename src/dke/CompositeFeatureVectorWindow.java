@@ -0,0 +1,56 @@
+package dke;
+
+import java.util.Arrays;
+
+// A rolling window over the feature vectors of a robot's most recent observations.
+// After each add(), compositeFeatureVector() holds exactly what EnvironmentStateSequence.endSliceFeatureVector(lastIndex, numberOfStates)
+// would have built for the sequence of observations added so far: the feature vectors of the last numberOfStates observations, oldest first,
+// padded with 0's until that many observations have been added. The window is cleared when a new round starts, since observations from
+// different rounds are not consecutive (see EnvironmentStateSequence).
+// Adding an observation shifts the window by one feature vector in place, so it costs O(numberOfStates * EnvironmentStateTuple.DIMENSION_COUNT)
+// with no allocation, rather than a sublist plus one new feature vector per observation in the window.
+public class CompositeFeatureVectorWindow {
+  private final double[] compositeFeatureVector;
+  private final int numberOfStates;
+  private int count;
+  
+  public CompositeFeatureVectorWindow(int numberOfStates) {
+    this.numberOfStates = numberOfStates;
+    this.compositeFeatureVector = new double[EnvironmentStateTuple.DIMENSION_COUNT * numberOfStates];
+    this.count = 0;
+  }
+  
+  public void add(EnvironmentStateTuple observation) {
+    int dimensionCount = EnvironmentStateTuple.DIMENSION_COUNT;
+    if(count < numberOfStates) {
+      observation.writeFeatureVector(compositeFeatureVector, count * dimensionCount);
+      count++;
+    } else {
+      System.arraycopy(compositeFeatureVector, dimensionCount, compositeFeatureVector, 0, compositeFeatureVector.length - dimensionCount);
+      observation.writeFeatureVector(compositeFeatureVector, compositeFeatureVector.length - dimensionCount);
+    }
+  }
+  
+  // Empties the window.
+  public void clear() {
+    Arrays.fill(compositeFeatureVector, 0.0);
+    count = 0;
+  }
+  
+  // Resets the window to the last numberOfStates observations of observationSequence's last round.
+  public void fill(EnvironmentStateSequence observationSequence) {
+    clear();
+    int size = observationSequence.size();
+    if(size == 0) {
+      return;
+    }
+    for(int i = Math.max(observationSequence.roundStartIndex(size - 1), size - numberOfStates); i < size; i++) {
+      add(observationSequence.get(i));
+    }
+  }
+  
+  // The returned array is owned by the window, and is overwritten by the next call to add() or fill().
+  public double[] compositeFeatureVector() {
+    return compositeFeatureVector;
+  }
+}
@@ -50,14 +50,18 @@ public class DkeRobot extends AdvancedRobot {
   // The x-axis in robocode points straight up, which is what we normally consider the y-axis. So, our computation of rise and run
   // must take into account our coordinate system and clockwise direction convention.
   public double headingToPoint(Point2D.Double destinationPoint) {
-    return Utils.headingToPoint(destinationPoint, currentCoords());
+    return Utils.headingToPoint(destinationPoint.x, destinationPoint.y, getX(), getY());
+  }
+  
+  public double headingToPoint(double x, double y) {
+    return Utils.headingToPoint(x, y, getX(), getY());
   }
 
   // Returns a rotation amount in Radians.
   //   A positive return value indicates that the robot should turn right.
   //   A negative return value indicates that the robot should turn left.
   public double bearingToPoint(Point2D.Double destinationPoint) {
-    return bearingToPoint(destinationPoint, currentCoords());
+    return Utils.bearingToPoint(destinationPoint.x, destinationPoint.y, getX(), getY(), currentAbsoluteHeading());
   }
   
   public double bearingToPoint(Point2D.Double destinationPoint, Point2D.Double originPoint) {
@@ -65,7 +69,7 @@ public class DkeRobot extends AdvancedRobot {
   }
 
   public Point2D.Double pointAtHeading(double heading, double distance) {
-    return Utils.pointAtHeading(heading, distance, currentCoords());
+    return Utils.pointAtHeading(heading, distance, getX(), getY(), new Point2D.Double());
   }
   
   public Point2D.Double pointAtBearing(double bearing, double distance) {
@@ -73,16 +77,15 @@ public class DkeRobot extends AdvancedRobot {
   }
 
   public double distanceFromWall(CardinalDirection directionOfWall) {
-    Point2D.Double pos = currentCoords();
     switch (directionOfWall) {
     case North:
-      return northWall - pos.y;
+      return northWall - getY();
     case East:
-      return eastWall - pos.x;
+      return eastWall - getX();
     case South:
-      return pos.y;
+      return getY();
     case West:
-      return pos.x;
+      return getX();
     }
     return 0.0;
   }
@@ -90,6 +93,16 @@ public class DkeRobot extends AdvancedRobot {
   public Point2D.Double currentCoords() {
     return new Point2D.Double(getX(), getY());
   }
+  
+  // Sets 'result' to the robot's current coordinates, and returns it.
+  public Point2D.Double currentCoords(Point2D.Double result) {
+    result.setLocation(getX(), getY());
+    return result;
+  }
+  
+  public double distanceTo(double x, double y) {
+    return Point2D.distance(getX(), getY(), x, y);
+  }
 
   public MoveInAStraightLine moveInAStraightLine(double x, double y) {
     return new MoveInAStraightLine(this, new Point2D.Double(x, y));
@@ -0,0 +1,106 @@
+package dke;
+
+import java.util.List;
+
+// EnvironmentStateDistance measures how far apart two EnvironmentStateTuples are, in plain double arithmetic.
+// The distance is taken over COMPONENT_COUNT components, in this order:
+//   enemy position (the Euclidean distance between the two positions), enemy heading, enemy velocity, enemy timeSinceLastShotFired,
+//   self position, self heading, self velocity, self timeSinceLastShotFired, time.
+// Each squared component difference is multiplied by its weight (if weights are given), and the square root of the sum is taken
+// unless the distance was created with squared = true; the squared distance ranks candidates the same way and is cheaper.
+public class EnvironmentStateDistance {
+  public static final int COMPONENT_COUNT = 9;
+
+  // The unweighted Euclidean distance (what EnvironmentStateTuple.euclideanDistance returns)
+  public static final EnvironmentStateDistance EUCLIDEAN = new EnvironmentStateDistance(null, false);
+  // The unweighted squared Euclidean distance, for ranking
+  public static final EnvironmentStateDistance SQUARED_EUCLIDEAN = new EnvironmentStateDistance(null, true);
+
+  private final double[] weights;     // null means every component has weight 1
+  private final boolean squared;
+
+  public EnvironmentStateDistance(double[] weights, boolean squared) {
+    if(weights != null && weights.length != COMPONENT_COUNT) {
+      throw new IllegalArgumentException("Expected " + COMPONENT_COUNT + " weights, got " + weights.length);
+    }
+    this.weights = weights != null ? weights.clone() : null;
+    this.squared = squared;
+  }
+
+  public boolean isSquared() {
+    return squared;
+  }
+
+  public double distance(EnvironmentStateTuple a, EnvironmentStateTuple b) {
+    return finish(sumOfSquares(a.enemyRobot.position.x - b.enemyRobot.position.x,
+                               a.enemyRobot.position.y - b.enemyRobot.position.y,
+                               a.enemyRobot.heading - b.enemyRobot.heading,
+                               a.enemyRobot.velocity - b.enemyRobot.velocity,
+                               a.enemyRobot.timeSinceLastShotFired - b.enemyRobot.timeSinceLastShotFired,
+                               a.self.position.x - b.self.position.x,
+                               a.self.position.y - b.self.position.y,
+                               a.self.heading - b.self.heading,
+                               a.self.velocity - b.self.velocity,
+                               a.self.timeSinceLastShotFired - b.self.timeSinceLastShotFired,
+                               a.time - b.time));
+  }
+
+  // Writes distance(query, candidates.get(i)) into distances[i], for every candidate.
+  public void distances(EnvironmentStateTuple query, List<EnvironmentStateTuple> candidates, double[] distances) {
+    for(int i = 0; i < candidates.size(); i++) {
+      distances[i] = distance(query, candidates.get(i));
+    }
+  }
+
+  // Writes the distance from query to each observation of observationSequence in the range [startIndex, startIndex + count) into distances[0 .. count).
+  // This reads the sequence's columns directly, so no tuples are built for the candidates.
+  public void distances(EnvironmentStateTuple query, EnvironmentStateSequence observationSequence, int startIndex, int count, double[] distances) {
+    RobotStateTuple enemy = query.enemyRobot;
+    RobotStateTuple self = query.self;
+    for(int i = 0; i < count; i++) {
+      int index = startIndex + i;
+      distances[i] = finish(sumOfSquares(enemy.position.x - observationSequence.enemyXAt(index),
+                                         enemy.position.y - observationSequence.enemyYAt(index),
+                                         enemy.heading - observationSequence.enemyHeadingAt(index),
+                                         enemy.velocity - observationSequence.enemyVelocityAt(index),
+                                         enemy.timeSinceLastShotFired - observationSequence.enemyTimeSinceLastShotFiredAt(index),
+                                         self.position.x - observationSequence.selfXAt(index),
+                                         self.position.y - observationSequence.selfYAt(index),
+                                         self.heading - observationSequence.selfHeadingAt(index),
+                                         self.velocity - observationSequence.selfVelocityAt(index),
+                                         self.timeSinceLastShotFired - observationSequence.selfTimeSinceLastShotFiredAt(index),
+                                         query.time - observationSequence.timeAt(index)));
+    }
+  }
+
+  private double sumOfSquares(double enemyDx, double enemyDy, double enemyHeading, double enemyVelocity, double enemyTimeSinceLastShotFired,
+                              double selfDx, double selfDy, double selfHeading, double selfVelocity, double selfTimeSinceLastShotFired,
+                              double time) {
+    double enemyPosition = enemyDx * enemyDx + enemyDy * enemyDy;     // already the square of the distance between the positions
+    double selfPosition = selfDx * selfDx + selfDy * selfDy;
+    if(weights == null) {
+      return enemyPosition
+           + enemyHeading * enemyHeading
+           + enemyVelocity * enemyVelocity
+           + enemyTimeSinceLastShotFired * enemyTimeSinceLastShotFired
+           + selfPosition
+           + selfHeading * selfHeading
+           + selfVelocity * selfVelocity
+           + selfTimeSinceLastShotFired * selfTimeSinceLastShotFired
+           + time * time;
+    }
+    return weights[0] * enemyPosition
+         + weights[1] * enemyHeading * enemyHeading
+         + weights[2] * enemyVelocity * enemyVelocity
+         + weights[3] * enemyTimeSinceLastShotFired * enemyTimeSinceLastShotFired
+         + weights[4] * selfPosition
+         + weights[5] * selfHeading * selfHeading
+         + weights[6] * selfVelocity * selfVelocity
+         + weights[7] * selfTimeSinceLastShotFired * selfTimeSinceLastShotFired
+         + weights[8] * time * time;
+  }
+
+  private double finish(double sumOfSquares) {
+    return squared ? sumOfSquares : Math.sqrt(sumOfSquares);
+  }
+}
@@ -1,17 +1,289 @@
 package dke;
 
 import java.awt.geom.Point2D;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
 
-public class EnvironmentStateSequence extends ArrayList<EnvironmentStateTuple> {
-  private static final long serialVersionUID = 8595917754565517052L;
+// EnvironmentStateSequence stores its observations column by column, in growable primitive arrays (one per attribute of the enemy, self and time),
+// rather than as one EnvironmentStateTuple (plus two RobotStateTuples and two Point2D.Doubles) per observation.
+// It still behaves as a List<EnvironmentStateTuple>: get(i), last(), slice(...) and the attribute getters build tuples, points and lists on demand
+// as views of the columns. Code on a hot path should use the primitive accessors (timeAt(i), enemyXAt(i), ...) instead, which allocate nothing.
+// A null enemy or self state is stored as a state with a NaN position.
+//
+// A sequence can hold several rounds' observations (e.g. a log saved in earlier rounds, followed by this round's). An observation made at
+// least ROUND_TIME_GAP ticks after the one before it starts a new round. Observations are only consecutive within a round, so enemy paths
+// and composite feature vectors stop at round boundaries.
+public class EnvironmentStateSequence extends AbstractList<EnvironmentStateTuple> implements RandomAccess {
+  private static final int INITIAL_CAPACITY = 64;
+  // Robocode's clock restarts every round, so a log loaded from earlier rounds has its times shifted to end this many ticks before the
+  // current round starts (see ObservationLogStore); no gap within a round is ever this long.
+  public static final long ROUND_TIME_GAP = 1000;
+
+  private int size;
+  private long[] times;
+  private double[] enemyXs, enemyYs, enemyHeadings, enemyVelocities;
+  private long[] enemyTimesSinceLastShotFired;
+  private double[] selfXs, selfYs, selfHeadings, selfVelocities;
+  private long[] selfTimesSinceLastShotFired;
+  private int roundCount;
+  private int[] roundStartIndices;     // the index of each round's first observation, in increasing order
+
+  public EnvironmentStateSequence() {
+    size = 0;
+    roundCount = 0;
+    roundStartIndices = new int[4];
+    times = new long[INITIAL_CAPACITY];
+    enemyXs = new double[INITIAL_CAPACITY];
+    enemyYs = new double[INITIAL_CAPACITY];
+    enemyHeadings = new double[INITIAL_CAPACITY];
+    enemyVelocities = new double[INITIAL_CAPACITY];
+    enemyTimesSinceLastShotFired = new long[INITIAL_CAPACITY];
+    selfXs = new double[INITIAL_CAPACITY];
+    selfYs = new double[INITIAL_CAPACITY];
+    selfHeadings = new double[INITIAL_CAPACITY];
+    selfVelocities = new double[INITIAL_CAPACITY];
+    selfTimesSinceLastShotFired = new long[INITIAL_CAPACITY];
+  }
+
+  //************************** List implementation ********************************
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  // Returns a new tuple holding a copy of the observation at index; changes to the tuple are not written back to the sequence.
+  @Override
+  public EnvironmentStateTuple get(int index) {
+    checkIndex(index);
+    return new EnvironmentStateTuple(enemyStateAt(index), selfStateAt(index), times[index]);
+  }
+
+  // Observations can only be appended.
+  @Override
+  public void add(int index, EnvironmentStateTuple observation) {
+    if(index != size) {
+      throw new UnsupportedOperationException("observations can only be appended to an EnvironmentStateSequence");
+    }
+    add(observation.enemyRobot, observation.self, observation.time);
+  }
+
+  @Override
+  public void clear() {
+    size = 0;
+    roundCount = 0;
+    modCount++;
+  }
+
+  // Appends an observation, copying its attributes into the columns.
+  public void add(RobotStateTuple enemyRobot, RobotStateTuple self, long time) {
+    ensureCapacity(size + 1);
+    if(size == 0 || time - times[size - 1] >= ROUND_TIME_GAP) {
+      if(roundCount == roundStartIndices.length) {
+        roundStartIndices = Arrays.copyOf(roundStartIndices, roundCount * 2);
+      }
+      roundStartIndices[roundCount++] = size;
+    }
+    times[size] = time;
+    if(enemyRobot != null) {
+      enemyXs[size] = enemyRobot.position != null ? enemyRobot.position.x : Double.NaN;
+      enemyYs[size] = enemyRobot.position != null ? enemyRobot.position.y : Double.NaN;
+      enemyHeadings[size] = enemyRobot.heading;
+      enemyVelocities[size] = enemyRobot.velocity;
+      enemyTimesSinceLastShotFired[size] = enemyRobot.timeSinceLastShotFired;
+    } else {
+      enemyXs[size] = enemyYs[size] = Double.NaN;
+      enemyHeadings[size] = enemyVelocities[size] = 0;
+      enemyTimesSinceLastShotFired[size] = 0;
+    }
+    if(self != null) {
+      selfXs[size] = self.position != null ? self.position.x : Double.NaN;
+      selfYs[size] = self.position != null ? self.position.y : Double.NaN;
+      selfHeadings[size] = self.heading;
+      selfVelocities[size] = self.velocity;
+      selfTimesSinceLastShotFired[size] = self.timeSinceLastShotFired;
+    } else {
+      selfXs[size] = selfYs[size] = Double.NaN;
+      selfHeadings[size] = selfVelocities[size] = 0;
+      selfTimesSinceLastShotFired[size] = 0;
+    }
+    size++;
+    modCount++;
+  }
+
+  public void ensureCapacity(int minimumCapacity) {
+    if(minimumCapacity > times.length) {
+      int capacity = Math.max(minimumCapacity, times.length * 2);
+      times = Arrays.copyOf(times, capacity);
+      enemyXs = Arrays.copyOf(enemyXs, capacity);
+      enemyYs = Arrays.copyOf(enemyYs, capacity);
+      enemyHeadings = Arrays.copyOf(enemyHeadings, capacity);
+      enemyVelocities = Arrays.copyOf(enemyVelocities, capacity);
+      enemyTimesSinceLastShotFired = Arrays.copyOf(enemyTimesSinceLastShotFired, capacity);
+      selfXs = Arrays.copyOf(selfXs, capacity);
+      selfYs = Arrays.copyOf(selfYs, capacity);
+      selfHeadings = Arrays.copyOf(selfHeadings, capacity);
+      selfVelocities = Arrays.copyOf(selfVelocities, capacity);
+      selfTimesSinceLastShotFired = Arrays.copyOf(selfTimesSinceLastShotFired, capacity);
+    }
+  }
+
+  // Adds 'offset' to the time of every observation, e.g. to move observations loaded from an earlier round before the current round's.
+  public void shiftTimes(long offset) {
+    for(int i = 0; i < size; i++) {
+      times[i] += offset;
+    }
+  }
+
+  // Returns the index of the last observation made at or before 'time', or -1 if there is none.
+  // Observations are logged in time order, so the times column is sorted and this is a binary search.
+  public int lastIndexAtOrBefore(long time) {
+    int low = 0, high = size - 1;
+    while(low <= high) {
+      int middle = (low + high) >>> 1;
+      if(times[middle] <= time) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return high;
+  }
+
+  // Returns the index of the first observation of the round that the observation at 'index' belongs to.
+  public int roundStartIndex(int index) {
+    return roundStartIndices[roundOf(index)];
+  }
+
+  // Returns the index just past the last observation of the round that the observation at 'index' belongs to.
+  public int roundEndIndex(int index) {
+    int round = roundOf(index);
+    return round + 1 < roundCount ? roundStartIndices[round + 1] : size;
+  }
+
+  // Returns the number of the round the observation at 'index' belongs to; a binary search over the (few) rounds.
+  private int roundOf(int index) {
+    checkIndex(index);
+    int low = 0, high = roundCount - 1;
+    while(low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if(roundStartIndices[middle] <= index) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+
+  private void checkIndex(int index) {
+    if(index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+  //************************** Primitive accessors ********************************
+
+  public long timeAt(int index) {
+    checkIndex(index);
+    return times[index];
+  }
+
+  public double enemyXAt(int index) {
+    checkIndex(index);
+    return enemyXs[index];
+  }
+
+  public double enemyYAt(int index) {
+    checkIndex(index);
+    return enemyYs[index];
+  }
+
+  public double enemyHeadingAt(int index) {
+    checkIndex(index);
+    return enemyHeadings[index];
+  }
+
+  public double enemyVelocityAt(int index) {
+    checkIndex(index);
+    return enemyVelocities[index];
+  }
+
+  public long enemyTimeSinceLastShotFiredAt(int index) {
+    checkIndex(index);
+    return enemyTimesSinceLastShotFired[index];
+  }
+
+  public double selfXAt(int index) {
+    checkIndex(index);
+    return selfXs[index];
+  }
+
+  public double selfYAt(int index) {
+    checkIndex(index);
+    return selfYs[index];
+  }
+
+  public double selfHeadingAt(int index) {
+    checkIndex(index);
+    return selfHeadings[index];
+  }
+
+  public double selfVelocityAt(int index) {
+    checkIndex(index);
+    return selfVelocities[index];
+  }
+
+  public long selfTimeSinceLastShotFiredAt(int index) {
+    checkIndex(index);
+    return selfTimesSinceLastShotFired[index];
+  }
+
+  // Writes the EnvironmentStateTuple.DIMENSION_COUNT values of get(index).featureVector() into 'destination', starting at 'offset', without allocating.
+  // This must list the same attributes, in the same order, as EnvironmentStateTuple.writeFeatureVector.
+  public void writeFeatureVector(int index, double[] destination, int offset) {
+    checkIndex(index);
+    destination[offset] = enemyHeadings[index];
+    destination[offset + 1] = enemyXs[index];
+    destination[offset + 2] = enemyYs[index];
+    destination[offset + 3] = enemyVelocities[index];
+  }
+
+  // Writes the enemy's path after observation 'fromIndex', up to (but not including) observation 'toIndex', into xs and ys (from index 'offset'),
+  // rotated clockwise by 'rotation' about the enemy's position at fromIndex and then moved so that position is at (originX, originY).
+  // The path stops early at the end of fromIndex's round, since the next observation is from another round.
+  // Returns the number of positions written, min(toIndex, roundEndIndex(fromIndex)) - fromIndex - 1.
+  // A position is the sum of every step before it, so each one is computed directly from its offset from fromIndex, with no trig inside the loop.
+  public int writeEnemyPath(int fromIndex, int toIndex, double originX, double originY, double rotation, double[] xs, double[] ys, int offset) {
+    checkIndex(fromIndex);
+    if(toIndex > size) {
+      throw new IndexOutOfBoundsException("Index: " + toIndex + ", Size: " + size);
+    }
+    toIndex = Math.min(toIndex, roundEndIndex(fromIndex));
+    double sinRotation = Math.sin(rotation);
+    double cosRotation = Math.cos(rotation);
+    double fromX = enemyXs[fromIndex];
+    double fromY = enemyYs[fromIndex];
+    int positionCount = 0;
+    for(int i = fromIndex + 1; i < toIndex; i++) {
+      double dx = enemyXs[i] - fromX;
+      double dy = enemyYs[i] - fromY;
+      xs[offset + positionCount] = originX + dx * cosRotation + dy * sinRotation;
+      ys[offset + positionCount] = originY + dy * cosRotation - dx * sinRotation;
+      positionCount++;
+    }
+    return positionCount;
+  }
+
+  //************************** Sequence operations ********************************
 
   public ArrayList<RobotStateTuple> getEnemyStateTuples(int count) {
     ArrayList<RobotStateTuple> retval = new ArrayList<RobotStateTuple>();
     for(int i = Math.max(0, size() - count); i < size(); i++) {
-      retval.add(get(i).enemyRobot);
+      retval.add(enemyStateAt(i));
     }
     return retval;
   }
@@ -19,7 +291,7 @@ public class EnvironmentStateSequence extends ArrayList<EnvironmentStateTuple> {
   public ArrayList<RobotStateTuple> getSelfStateTuples(int count) {
     ArrayList<RobotStateTuple> retval = new ArrayList<RobotStateTuple>();
     for(int i = Math.max(0, size() - count); i < size(); i++) {
-      retval.add(get(i).self);
+      retval.add(selfStateAt(i));
     }
     return retval;
   }
@@ -27,15 +299,15 @@ public class EnvironmentStateSequence extends ArrayList<EnvironmentStateTuple> {
   public ArrayList<Long> getTimes(int count) {
     ArrayList<Long> retval = new ArrayList<Long>();
     for(int i = Math.max(0, size() - count); i < size(); i++) {
-      retval.add(get(i).time);
+      retval.add(times[i]);
     }
     return retval;
   }
-  
+
   public EnvironmentStateTuple last() {
     return nthLast(1);
   }
-  
+
   // nthLast returns the nth-to-last object.
   // offset is 1-based.
   // Example: list.nthLast(1) is the last item in the list and is equivalent to list.get(list.size() - 1)
@@ -44,40 +316,81 @@ public class EnvironmentStateSequence extends ArrayList<EnvironmentStateTuple> {
   public EnvironmentStateTuple nthLast(int offset) {
     return get(size() - offset);
   }
-  
+
   // Returns a subsequence of the EnvironmentStateSequence (this) in the range [startIndex, startIndex + count)
   public List<EnvironmentStateTuple> slice(int startIndex, int count) {
     return subList(startIndex, Math.min(startIndex + count, size()));
   }
-  
+
+  // Returns the composite feature vector the sequence's last 'count' observations had when the observation at endIndex was the last one:
+  // the feature vectors of the observations up to endIndex, oldest first, padded with 0's. Only observations from endIndex's round are used.
   public double[] endSliceFeatureVector(int endIndex, int count) {
-    return sliceFeatureVector(Math.max(0, endIndex - count + 1), count);
+    double[] compositeFeatureVector = new double[EnvironmentStateTuple.DIMENSION_COUNT * count];     // zero-padded
+    int startIndex = Math.max(roundStartIndex(endIndex), endIndex - count + 1);
+    for(int i = startIndex; i <= endIndex; i++) {
+      writeFeatureVector(i, compositeFeatureVector, (i - startIndex) * EnvironmentStateTuple.DIMENSION_COUNT);
+    }
+    return compositeFeatureVector;
   }
-  
+
   // Returns a double[] of length (count * EnvironmentStateTuple.DIMENSION_COUNT).
   // The array that is returned contains the feature vectors from the observations in the range [startIndex, startIndex + count)
   // The composite feature vector is padded with 0's if there are not enough observations in the subsequence from which to extract feature vectors.
   public double[] sliceFeatureVector(int startIndex, int count) {
-    double[] compositeFeatureVector = new double[EnvironmentStateTuple.DIMENSION_COUNT * count];
-    double[] zerosFeatureVector = new double[EnvironmentStateTuple.DIMENSION_COUNT];
-    Arrays.fill(zerosFeatureVector, 0.0);
-    
-    List<EnvironmentStateTuple> sublist = slice(startIndex, count);
-    for(int i = 0; i < sublist.size(); i++) {
-      System.arraycopy(sublist.get(i).featureVector(), 0, compositeFeatureVector, i * EnvironmentStateTuple.DIMENSION_COUNT, EnvironmentStateTuple.DIMENSION_COUNT);
-    }
-    for(int i = sublist.size(); i < count; i++) {
-      System.arraycopy(zerosFeatureVector, 0, compositeFeatureVector, i * EnvironmentStateTuple.DIMENSION_COUNT, EnvironmentStateTuple.DIMENSION_COUNT);
+    double[] compositeFeatureVector = new double[EnvironmentStateTuple.DIMENSION_COUNT * count];     // zero-padded
+    int endIndex = Math.min(startIndex + count, size());
+    for(int i = startIndex; i < endIndex; i++) {
+      writeFeatureVector(i, compositeFeatureVector, (i - startIndex) * EnvironmentStateTuple.DIMENSION_COUNT);
     }
     return compositeFeatureVector;
   }
-  
+
+  // Returns, for every observation i in the sequence, endSliceFeatureVector(i, count), packed one after another into a single double[]
+  // of length (size() * count * EnvironmentStateTuple.DIMENSION_COUNT).
+  public double[] endSliceFeatureVectors(int count) {
+    int[] observationIndices = new int[size()];
+    for(int i = 0; i < observationIndices.length; i++) {
+      observationIndices[i] = i;
+    }
+    return endSliceFeatureVectors(count, observationIndices, observationIndices.length);
+  }
+
+  // Returns endSliceFeatureVector(observationIndices[k], count) for each k < observationCount, packed one after another into a single double[]
+  // of length (observationCount * count * EnvironmentStateTuple.DIMENSION_COUNT).
+  public double[] endSliceFeatureVectors(int count, int[] observationIndices, int observationCount) {
+    int dimensionCount = EnvironmentStateTuple.DIMENSION_COUNT;
+    int compositeDimensionCount = dimensionCount * count;
+    double[] compositeFeatureVectors = new double[observationCount * compositeDimensionCount];     // zero-padded, like endSliceFeatureVector
+    for(int k = 0; k < observationCount; k++) {
+      int i = observationIndices[k];
+      int startIndex = Math.max(roundStartIndex(i), i - count + 1);
+      for(int j = startIndex; j <= i; j++) {
+        writeFeatureVector(j, compositeFeatureVectors, k * compositeDimensionCount + (j - startIndex) * dimensionCount);
+      }
+    }
+    return compositeFeatureVectors;
+  }
+
+  // Returns the indices of the observations with at least 'successorCount' observations after them in their own round, i.e. the observations
+  // whose path can be replayed that far, in increasing order; writes them into observationIndices (which must hold size() of them)
+  // and returns how many there are.
+  public int replayableIndices(int successorCount, int[] observationIndices) {
+    int count = 0;
+    for(int round = 0; round < roundCount; round++) {
+      int endIndex = (round + 1 < roundCount ? roundStartIndices[round + 1] : size) - successorCount;
+      for(int i = roundStartIndices[round]; i < endIndex; i++) {
+        observationIndices[count++] = i;
+      }
+    }
+    return count;
+  }
+
   //************************** Enemy Attribute Getters ********************************
-  
+
   public ArrayList<Point2D.Double> getEnemyPositions(int count) {
     ArrayList<Point2D.Double> retval = new ArrayList<Point2D.Double>();
     for(int i = Math.max(0, size() - count); i < size(); i++) {
-      retval.add(get(i).enemyRobot.position);
+      retval.add(new Point2D.Double(enemyXs[i], enemyYs[i]));
     }
     return retval;
   }
@@ -85,7 +398,7 @@ public class EnvironmentStateSequence extends ArrayList<EnvironmentStateTuple> {
   public ArrayList<Double> getEnemyHeadings(int count) {
     ArrayList<Double> retval = new ArrayList<Double>();
     for(int i = Math.max(0, size() - count); i < size(); i++) {
-      retval.add(get(i).enemyRobot.heading);
+      retval.add(enemyHeadings[i]);
     }
     return retval;
   }
@@ -93,17 +406,23 @@ public class EnvironmentStateSequence extends ArrayList<EnvironmentStateTuple> {
   public ArrayList<Double> getEnemyVelocities(int count) {
     ArrayList<Double> retval = new ArrayList<Double>();
     for(int i = Math.max(0, size() - count); i < size(); i++) {
-      retval.add(get(i).enemyRobot.velocity);
+      retval.add(enemyVelocities[i]);
     }
     return retval;
   }
 
   public RobotStateTuple lastEnemyRobotState() {
-    return last().enemyRobot;
+    return nthLastEnemyRobotState(1);
   }
-  
+
   public RobotStateTuple nthLastEnemyRobotState(int offset) {
-    return nthLast(offset).enemyRobot;
+    int index = size() - offset;
+    checkIndex(index);
+    return enemyStateAt(index);
+  }
+
+  private RobotStateTuple enemyStateAt(int index) {
+    return new RobotStateTuple(new Point2D.Double(enemyXs[index], enemyYs[index]), enemyHeadings[index], enemyVelocities[index], enemyTimesSinceLastShotFired[index]);
   }
 
   //************************** Self/Me Attribute Getters ********************************
@@ -111,7 +430,7 @@ public class EnvironmentStateSequence extends ArrayList<EnvironmentStateTuple> {
   public ArrayList<Point2D.Double> getSelfPositions(int count) {
     ArrayList<Point2D.Double> retval = new ArrayList<Point2D.Double>();
     for(int i = Math.max(0, size() - count); i < size(); i++) {
-      retval.add(get(i).self.position);
+      retval.add(new Point2D.Double(selfXs[i], selfYs[i]));
     }
     return retval;
   }
@@ -119,7 +438,7 @@ public class EnvironmentStateSequence extends ArrayList<EnvironmentStateTuple> {
   public ArrayList<Double> getSelfHeadings(int count) {
     ArrayList<Double> retval = new ArrayList<Double>();
     for(int i = Math.max(0, size() - count); i < size(); i++) {
-      retval.add(get(i).self.heading);
+      retval.add(selfHeadings[i]);
     }
     return retval;
   }
@@ -127,16 +446,22 @@ public class EnvironmentStateSequence extends ArrayList<EnvironmentStateTuple> {
   public ArrayList<Double> getSelfVelocities(int count) {
     ArrayList<Double> retval = new ArrayList<Double>();
     for(int i = Math.max(0, size() - count); i < size(); i++) {
-      retval.add(get(i).self.velocity);
+      retval.add(selfVelocities[i]);
     }
     return retval;
   }
 
   public RobotStateTuple lastSelfRobotState() {
-    return last().self;
+    return nthLastSelfRobotState(1);
   }
-  
+
   public RobotStateTuple nthLastSelfRobotState(int offset) {
-    return nthLast(offset).self;
+    int index = size() - offset;
+    checkIndex(index);
+    return selfStateAt(index);
+  }
+
+  private RobotStateTuple selfStateAt(int index) {
+    return new RobotStateTuple(new Point2D.Double(selfXs[index], selfYs[index]), selfHeadings[index], selfVelocities[index], selfTimesSinceLastShotFired[index]);
   }
 }
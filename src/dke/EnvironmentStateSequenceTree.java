@@ -1,8 +1,11 @@
 package dke;
 
-import dke.KdTree.SqrEuclid;
+import java.io.IOException;
+import java.io.InputStream;
 
-public class EnvironmentStateSequenceTree extends SqrEuclid<Integer> {
+import dke.FlatKdTree.SqrEuclid;
+
+public class EnvironmentStateSequenceTree extends SqrEuclid {
   public EnvironmentStateSequenceTree(int numberOfStatesPerObservation) {
     super(EnvironmentStateTuple.DIMENSION_COUNT * numberOfStatesPerObservation, null);
   }
@@ -10,4 +13,24 @@ public class EnvironmentStateSequenceTree extends SqrEuclid<Integer> {
   public EnvironmentStateSequenceTree(int numberOfStatesPerObservation, Integer maximumObservationCount) {
     super(EnvironmentStateTuple.DIMENSION_COUNT * numberOfStatesPerObservation, maximumObservationCount);
   }
-}
+  
+  // Builds a balanced tree over the observations in observationSequence, keyed by observation index; the same points that logging each
+  // observation in turn would have added, but built in O(n log n) with median splits. Observations with fewer than minimumSuccessorCount
+  // observations after them in their round are left out, since there is too little of their path to replay; in a log from earlier rounds,
+  // these are the ends of the rounds, which no query's time cutoff would exclude.
+  public static EnvironmentStateSequenceTree build(EnvironmentStateSequence observationSequence, int numberOfStatesPerObservation, Integer maximumObservationCount,
+                                                   int minimumSuccessorCount) {
+    EnvironmentStateSequenceTree tree = new EnvironmentStateSequenceTree(numberOfStatesPerObservation, maximumObservationCount);
+    int[] observationIndices = new int[observationSequence.size()];
+    int observationCount = observationSequence.replayableIndices(minimumSuccessorCount, observationIndices);
+    tree.bulkLoad(observationSequence.endSliceFeatureVectors(numberOfStatesPerObservation, observationIndices, observationCount), observationIndices, observationCount);
+    return tree;
+  }
+  
+  // Restores a tree saved with writeSnapshot, without rebuilding it from the observations.
+  public static EnvironmentStateSequenceTree restore(InputStream in, int numberOfStatesPerObservation, Integer maximumObservationCount) throws IOException {
+    EnvironmentStateSequenceTree tree = new EnvironmentStateSequenceTree(numberOfStatesPerObservation, maximumObservationCount);
+    tree.readSnapshot(in);
+    return tree;
+  }
+}
\ No newline at end of file
@@ -1,8 +1,8 @@
 package dke;
 
-import dke.KdTree.SqrEuclid;
+import dke.FlatKdTree.SqrEuclid;
 
-public class EnvironmentStateTree extends SqrEuclid<Integer> {
+public class EnvironmentStateTree extends SqrEuclid {
   public EnvironmentStateTree() {
     super(EnvironmentStateTuple.DIMENSION_COUNT, null);
   }
@@ -10,4 +10,16 @@ public class EnvironmentStateTree extends SqrEuclid<Integer> {
   public EnvironmentStateTree(Integer maximumObservationCount) {
     super(EnvironmentStateTuple.DIMENSION_COUNT, maximumObservationCount);
   }
+  
+  // Builds a balanced tree over the observations in observationSequence, keyed by observation index; the same points that logging each
+  // observation in turn would have added, but built in O(n log n) with median splits. Observations with fewer than minimumSuccessorCount
+  // observations after them in their round are left out, since there is too little of their path to replay; in a log from earlier rounds,
+  // these are the ends of the rounds, which no query's time cutoff would exclude.
+  public static EnvironmentStateTree build(EnvironmentStateSequence observationSequence, Integer maximumObservationCount, int minimumSuccessorCount) {
+    EnvironmentStateTree tree = new EnvironmentStateTree(maximumObservationCount);
+    int[] observationIndices = new int[observationSequence.size()];
+    int observationCount = observationSequence.replayableIndices(minimumSuccessorCount, observationIndices);
+    tree.bulkLoad(observationSequence.endSliceFeatureVectors(1, observationIndices, observationCount), observationIndices, observationCount);
+    return tree;
+  }
 }
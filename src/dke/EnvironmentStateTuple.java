@@ -1,7 +1,5 @@
 package dke;
 
-import java.math.BigDecimal;
-
 public class EnvironmentStateTuple {
 //  public static int DIMENSION_COUNT = 11;
   public static int DIMENSION_COUNT = 4;
@@ -23,10 +21,9 @@ public class EnvironmentStateTuple {
   }
   
   public double[] featureVector() {
-  return new double[]{enemyRobot.heading,
-                      enemyRobot.position.x, 
-                      enemyRobot.position.y, 
-                      enemyRobot.velocity};
+    double[] featureVector = new double[DIMENSION_COUNT];
+    writeFeatureVector(featureVector, 0);
+    return featureVector;
 //    return new double[]{enemyRobot.heading,
 //                        enemyRobot.position.x, 
 //                        enemyRobot.position.y, 
@@ -40,40 +37,18 @@ public class EnvironmentStateTuple {
 //                        time};
   }
   
+  // Writes the DIMENSION_COUNT values of featureVector() into 'destination', starting at 'offset', without allocating.
+  public void writeFeatureVector(double[] destination, int offset) {
+    destination[offset] = enemyRobot.heading;
+    destination[offset + 1] = enemyRobot.position.x;
+    destination[offset + 2] = enemyRobot.position.y;
+    destination[offset + 3] = enemyRobot.velocity;
+  }
+  
   // This returns the Euclidean distance between feature vectors, where an EnvironmentStateTuple represents a feature vector
+  // See EnvironmentStateDistance for the components, and for weighted, squared and batched variants.
   public double euclideanDistance(EnvironmentStateTuple other) {
-    BigDecimal sumOfSquares = new BigDecimal(0);
-    BigDecimal tempDifference;
-    BigSquareRoot rootFinder = new BigSquareRoot();
-    
-    tempDifference = new BigDecimal(enemyRobot.position.distance(other.enemyRobot.position));
-    sumOfSquares = sumOfSquares.add(tempDifference.pow(2));
-    
-    tempDifference = new BigDecimal(enemyRobot.heading).subtract(new BigDecimal(other.enemyRobot.heading));
-    sumOfSquares = sumOfSquares.add(tempDifference.pow(2));
-    
-    tempDifference = new BigDecimal(enemyRobot.velocity).subtract(new BigDecimal(other.enemyRobot.velocity));
-    sumOfSquares = sumOfSquares.add(tempDifference.pow(2));
-    
-    tempDifference = new BigDecimal(enemyRobot.timeSinceLastShotFired).subtract(new BigDecimal(other.enemyRobot.timeSinceLastShotFired));
-    sumOfSquares = sumOfSquares.add(tempDifference.pow(2));
-    
-    tempDifference = new BigDecimal(self.position.distance(other.self.position));
-    sumOfSquares = sumOfSquares.add(tempDifference.pow(2));
-    
-    tempDifference = new BigDecimal(self.heading).subtract(new BigDecimal(other.self.heading));
-    sumOfSquares = sumOfSquares.add(tempDifference.pow(2));
-    
-    tempDifference = new BigDecimal(self.velocity).subtract(new BigDecimal(other.self.velocity));
-    sumOfSquares = sumOfSquares.add(tempDifference.pow(2));
-    
-    tempDifference = new BigDecimal(self.timeSinceLastShotFired).subtract(new BigDecimal(other.self.timeSinceLastShotFired));
-    sumOfSquares = sumOfSquares.add(tempDifference.pow(2));
-    
-    tempDifference = new BigDecimal(time).subtract(new BigDecimal(other.time));
-    sumOfSquares = sumOfSquares.add(tempDifference.pow(2));
-    
-    return rootFinder.sqrt(sumOfSquares).doubleValue();
+    return EnvironmentStateDistance.EUCLIDEAN.distance(this, other);
   }
   
   public String toString() {
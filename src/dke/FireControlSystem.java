@@ -1,10 +1,14 @@
 package dke;
 
+import robocode.RoundEndedEvent;
 import robocode.ScannedRobotEvent;
+import robocode.SkippedTurnEvent;
 
 public interface FireControlSystem {
   public void onScannedRobot(ScannedRobotEvent e);
   public void run();
   public void acquireTarget(String robotName);
   public void trackTarget(double targetBearing);
+  public void onSkippedTurn(SkippedTurnEvent e);
+  public void onRoundEnded(RoundEndedEvent e);
 }
\ No newline at end of file
@@ -0,0 +1,1473 @@
+/**
+ * Copyright 2009 Rednaxela
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ *    1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ *
+ *    2. This notice may not be removed or altered from any source
+ *    distribution.
+ */
+
+package dke;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import dke.KdTree.Entry;
+
+/**
+ * A variant of KdTree with a flat, array-backed layout and int payloads.
+ *
+ * Each leaf packs the coordinates of its points into one contiguous double[] (point i occupies
+ * [i * dimensions, (i + 1) * dimensions)) and keeps its payloads in an int[], so a leaf scan walks
+ * two arrays instead of one double[] per point plus one boxed payload per point.
+ * Points are copied into the tree on insertion, so callers may reuse the array they pass to addPoint.
+ *
+ * Queries keep no traversal state in the nodes, so any number of queries may run against the same tree at once,
+ * from any number of threads, as long as each uses its own QueryContext. addPoint must not run concurrently with
+ * queries or with another addPoint.
+ *
+ * @author Rednaxela
+ */
+public abstract class FlatKdTree {
+  // Static variables
+  private static final int bucketSize = 24;
+  private static final int rebalanceDepthSlack = 4;
+  private static final int maximumRebuildCoordinates = 1 << 16;     // bounds the work of one subtree rebuild, whatever the dimensions
+  private static final int SNAPSHOT_MAGIC = 0x464b4454;     // "FKDT"
+  private static final int SNAPSHOT_VERSION = 3;
+  private static final int SNAPSHOT_STEM = 1;
+  private static final int SNAPSHOT_SINGULARITY = 2;
+  private static final int SNAPSHOT_BOUNDED = 4;
+
+  // All types
+  private final int dimensions;
+  private final FlatKdTree parent;
+  private final boolean sizeLimited;
+  private final int maximumRebuildSize;     // the most points one addPoint call ever rebuilds
+
+  // Root only
+  // In a size-limited tree, the ring buffer holds a back-pointer (leaf and slot) to every point still in the tree, oldest first,
+  // with one spare slot for the point being added.
+  private final Integer maximumObservationCount;
+  private final FlatKdTree[] ringLeaves;
+  private final int[] ringSlots;
+  private int ringHead;
+  // Gather buffers for rebuilding a subtree, allocated once at maximumRebuildSize and reused by every rebuild
+  private double[] rebuildFeatureVectors;
+  private int[] rebuildData;
+  private int[] rebuildRingPositions;
+  private int[] rebuildOrder;
+
+  // Leaf only
+  private double[] featureVectors;
+  private int[] data;
+  private int[] ringPositions;     // size-limited trees only: the ring buffer position of each point in the leaf
+  private int featureVectorCount;
+
+  // Stem only
+  private FlatKdTree left, right;
+  private int splitDimension;
+  private double splitValue;
+
+  // Bounds
+  private double[] minLimit, maxLimit;
+  private boolean singularity;
+
+  /**
+   * Construct a FlatKdTree with a given number of dimensions and a limit on maximum size (after which it throws away old points)
+   */
+  private FlatKdTree(int dimensions, Integer maximumObservationCount) {
+    this.dimensions = dimensions;
+    this.sizeLimited = maximumObservationCount != null;
+    this.maximumRebuildSize = Math.max(4 * bucketSize, maximumRebuildCoordinates / dimensions);
+
+    // Init as leaf
+    this.featureVectors = new double[bucketSize * dimensions];
+    this.data = new int[bucketSize];
+    this.ringPositions = sizeLimited ? new int[bucketSize] : null;
+    this.featureVectorCount = 0;
+    this.singularity = true;
+
+    // Init as root
+    this.parent = null;
+    this.maximumObservationCount = maximumObservationCount;
+    if (sizeLimited) {
+      this.ringLeaves = new FlatKdTree[maximumObservationCount + 1];
+      this.ringSlots = new int[maximumObservationCount + 1];
+    } else {
+      this.ringLeaves = null;
+      this.ringSlots = null;
+    }
+    this.ringHead = 0;
+  }
+
+  /**
+   * Constructor for child nodes. Internal use only.
+   * A capacity of 0 creates a node without leaf storage, which is about to be made into a stem.
+   */
+  private FlatKdTree(FlatKdTree parent, int capacity) {
+    this.dimensions = parent.dimensions;
+    this.sizeLimited = parent.sizeLimited;
+    this.maximumRebuildSize = parent.maximumRebuildSize;
+
+    // Init as leaf
+    if (capacity > 0) {
+      this.featureVectors = new double[capacity * dimensions];
+      this.data = new int[capacity];
+      this.ringPositions = sizeLimited ? new int[capacity] : null;
+    }
+    this.featureVectorCount = 0;
+    this.singularity = true;
+
+    // Init as non-root
+    this.parent = parent;
+    this.maximumObservationCount = null;
+    this.ringLeaves = null;
+    this.ringSlots = null;
+  }
+
+  /**
+   * Get the number of points in the tree
+   */
+  public int size() {
+    return featureVectorCount;
+  }
+
+  /**
+   * Get the number of dimensions of the points in the tree
+   */
+  public int dimensions() {
+    return dimensions;
+  }
+
+  /**
+   * Add a point (i.e. a feature vector) and associated value to the tree.
+   * The feature vector is copied, so the caller is free to reuse the array.
+   * If the tree is size-limited and full, the oldest point is evicted in constant time (plus bound tightening along its path).
+   * If the new point lands, or the evicted point leaves a path, much deeper than a balanced subtree would be, that subtree (never
+   * more than maximumRebuildSize points of it) is rebuilt with median splits, so no single call does more than a bounded amount of work.
+   */
+  public void addPoint(double[] featureVector, int value) {
+    int ringPosition = sizeLimited ? (ringHead + featureVectorCount) % ringLeaves.length : 0;
+    rebalance(insert(featureVector, 0, value, ringPosition));
+
+    if (sizeLimited && this.featureVectorCount > this.maximumObservationCount) {
+      rebalance(this.removeOld());
+    }
+  }
+
+  /**
+   * Rebuilds, with median splits, the largest subtree holding 'node' (a leaf) that is too deep along the path down to 'node' for the
+   * number of points it holds, among the subtrees of no more than maximumRebuildSize points. Must be called on the root.
+   * Above that size, a path that is too deep is left alone: its extra levels are stems, which cost a query one comparison each, and
+   * rebuilding under them is what keeps the leaves a query scans well split.
+   */
+  private void rebalance(FlatKdTree node) {
+    FlatKdTree overDeep = null;
+    int height = 0;
+    for (FlatKdTree cursor = node; cursor != null && cursor.featureVectorCount <= maximumRebuildSize; cursor = cursor.parent) {
+      if (height > maximumBalancedDepth(cursor.featureVectorCount)) {
+        overDeep = cursor;
+      }
+      height++;
+    }
+    if (overDeep != null) {
+      rebuild(overDeep);
+    }
+  }
+
+  /**
+   * The deepest path tolerated in a tree of 'count' points: twice the depth of a balanced tree, plus some slack
+   */
+  private static int maximumBalancedDepth(int count) {
+    int balancedDepth = 32 - Integer.numberOfLeadingZeros(count / bucketSize);
+    return 2 * balancedDepth + rebalanceDepthSlack;
+  }
+
+  /**
+   * Adds the point at 'offset' in 'source' to the tree. Must be called on the root.
+   * Returns the leaf the point was added to.
+   */
+  private FlatKdTree insert(double[] source, int offset, int value, int ringPosition) {
+    FlatKdTree cursor = this;
+
+    while (cursor.featureVectors == null || cursor.featureVectorCount >= cursor.data.length) {
+      if (cursor.featureVectors != null) {
+        cursor.splitDimension = cursor.findWidestAxis();
+        cursor.splitValue = (cursor.minLimit[cursor.splitDimension] + cursor.maxLimit[cursor.splitDimension]) * 0.5;
+
+        // Never split on infinity or NaN
+        if (cursor.splitValue == Double.POSITIVE_INFINITY) {
+          cursor.splitValue = Double.MAX_VALUE;
+        } else if (cursor.splitValue == Double.NEGATIVE_INFINITY) {
+          cursor.splitValue = -Double.MAX_VALUE;
+        } else if (Double.isNaN(cursor.splitValue)) {
+          cursor.splitValue = 0;
+        }
+
+        // Don't split node if it has no width in any axis (a NaN bound has no width either, since it sends every point left).
+        // Double the bucket size instead
+        if (!(cursor.maxLimit[cursor.splitDimension] > cursor.minLimit[cursor.splitDimension])) {
+          cursor.featureVectors = Arrays.copyOf(cursor.featureVectors, cursor.featureVectors.length * 2);
+          cursor.data = Arrays.copyOf(cursor.data, cursor.data.length * 2);
+          if (sizeLimited) {
+            cursor.ringPositions = Arrays.copyOf(cursor.ringPositions, cursor.data.length);
+          }
+          break;
+        }
+
+        // Don't let the split value be the same as the upper value as
+        // can happen due to rounding errors!
+        if (cursor.splitValue == cursor.maxLimit[cursor.splitDimension]) {
+          cursor.splitValue = cursor.minLimit[cursor.splitDimension];
+        }
+
+        // Create child leaves
+        int capacity = Math.max(bucketSize, cursor.featureVectorCount);
+        FlatKdTree left = new ChildNode(cursor, capacity);
+        FlatKdTree right = new ChildNode(cursor, capacity);
+
+        // Move locations into children
+        for (int i = 0; i < cursor.featureVectorCount; i++) {
+          int pointOffset = i * dimensions;
+          int pointRingPosition = sizeLimited ? cursor.ringPositions[i] : 0;
+          if (cursor.featureVectors[pointOffset + cursor.splitDimension] > cursor.splitValue) {
+            // Right
+            appendToLeaf(right, cursor.featureVectors, pointOffset, cursor.data[i], pointRingPosition);
+          } else {
+            // Left
+            appendToLeaf(left, cursor.featureVectors, pointOffset, cursor.data[i], pointRingPosition);
+          }
+        }
+
+        // Make into stem
+        cursor.left = left;
+        cursor.right = right;
+        cursor.featureVectors = null;
+        cursor.data = null;
+        cursor.ringPositions = null;
+      }
+
+      cursor.featureVectorCount++;
+      cursor.extendBounds(source, offset);
+
+      if (source[offset + cursor.splitDimension] > cursor.splitValue) {
+        cursor = cursor.right;
+      } else {
+        cursor = cursor.left;
+      }
+    }
+
+    appendToLeaf(cursor, source, offset, value, ringPosition);
+    return cursor;
+  }
+
+  /**
+   * Copies the point at 'offset' in 'source' into the next free slot of 'leaf', and points its ring buffer entry at that slot.
+   * Must be called on the root.
+   */
+  private final void appendToLeaf(FlatKdTree leaf, double[] source, int offset, int value, int ringPosition) {
+    int slot = leaf.featureVectorCount;
+    System.arraycopy(source, offset, leaf.featureVectors, slot * dimensions, dimensions);
+    leaf.data[slot] = value;
+    if (sizeLimited) {
+      leaf.ringPositions[slot] = ringPosition;
+      ringLeaves[ringPosition] = leaf;
+      ringSlots[ringPosition] = slot;
+    }
+    leaf.featureVectorCount++;
+    leaf.extendBounds(source, offset);
+  }
+
+  /**
+   * Extends the bounds of this node do include a new location.
+   * A NaN coordinate adds nothing to a distance, so a dimension in which any point is NaN gets NaN bounds, which make pointRegionDist
+   * count nothing for it either. The node stays a singularity only while every new point matches the first in every dimension: a point
+   * that is NaN where the others aren't, or isn't where they are, ends it like any other difference.
+   */
+  private final void extendBounds(double[] source, int offset) {
+    if (minLimit == null) {
+      minLimit = new double[dimensions];
+      System.arraycopy(source, offset, minLimit, 0, dimensions);
+      maxLimit = new double[dimensions];
+      System.arraycopy(source, offset, maxLimit, 0, dimensions);
+      return;
+    }
+
+    for (int i = 0; i < dimensions; i++) {
+      double value = source[offset + i];
+      if (Double.isNaN(value)) {
+        if (!Double.isNaN(minLimit[i])) {
+          minLimit[i] = Double.NaN;
+          maxLimit[i] = Double.NaN;
+          singularity = false;
+        }
+      } else if (Double.isNaN(minLimit[i])) {
+        // Bounds already NaN, because an earlier point is NaN here and this one isn't
+        singularity = false;
+      } else if (minLimit[i] > value) {
+        minLimit[i] = value;
+        singularity = false;
+      } else if (maxLimit[i] < value) {
+        maxLimit[i] = value;
+        singularity = false;
+      }
+    }
+  }
+
+  /**
+   * Find the widest axis of the bounds of this node
+   */
+  private final int findWidestAxis() {
+    int widest = 0;
+    double width = (maxLimit[0] - minLimit[0]) * getAxisWeightHint(0);
+    if (Double.isNaN(width))
+      width = 0;
+    for (int i = 1; i < dimensions; i++) {
+      double nwidth = (maxLimit[i] - minLimit[i]) * getAxisWeightHint(i);
+      if (Double.isNaN(nwidth))
+        nwidth = 0;
+      if (nwidth > width) {
+        widest = i;
+        width = nwidth;
+      }
+    }
+    return widest;
+  }
+
+  /**
+   * Remove the oldest value from the tree.
+   * The ring buffer points straight at the leaf slot holding the oldest point, which is filled by the leaf's last point.
+   * Stems that drop to half a bucket or less are collapsed back into leaves, and the bounds of every node on the
+   * path are tightened, so the tree does not slow down as points come and go.
+   * Returns the leaf the point was removed from (or the stem collapsed into a leaf above it), for addPoint to rebalance around.
+   */
+  private FlatKdTree removeOld() {
+    FlatKdTree leaf = ringLeaves[ringHead];
+    int slot = ringSlots[ringHead];
+    ringLeaves[ringHead] = null;
+    ringHead = (ringHead + 1) % ringLeaves.length;
+
+    // Move the leaf's last point into the hole
+    int last = leaf.featureVectorCount - 1;
+    if (slot != last) {
+      System.arraycopy(leaf.featureVectors, last * dimensions, leaf.featureVectors, slot * dimensions, dimensions);
+      leaf.data[slot] = leaf.data[last];
+      leaf.ringPositions[slot] = leaf.ringPositions[last];
+      ringSlots[leaf.ringPositions[slot]] = slot;
+    }
+
+    FlatKdTree cursor = leaf;
+    while (cursor != null) {
+      cursor.featureVectorCount--;
+      cursor = cursor.parent;
+    }
+
+    // Collapse the highest ancestor that no longer holds more than half a bucket
+    FlatKdTree collapsible = null;
+    for (cursor = leaf.parent; cursor != null && cursor.featureVectorCount <= bucketSize / 2; cursor = cursor.parent) {
+      collapsible = cursor;
+    }
+    if (collapsible != null) {
+      collapseIntoLeaf(collapsible);
+      leaf = collapsible;
+    }
+
+    // Tighten bounds on the way up, until a node's bounds are unaffected
+    cursor = leaf;
+    while (cursor != null && cursor.recomputeBounds()) {
+      cursor = cursor.parent;
+    }
+    return leaf;
+  }
+
+  /**
+   * Turns the stem 'node' back into a leaf holding all of the points of its subtree. Must be called on the root.
+   */
+  private void collapseIntoLeaf(FlatKdTree node) {
+    FlatKdTree oldLeft = node.left;
+    FlatKdTree oldRight = node.right;
+    int capacity = Math.max(bucketSize, node.featureVectorCount);
+
+    node.featureVectors = new double[capacity * dimensions];
+    node.data = new int[capacity];
+    node.ringPositions = new int[capacity];
+    node.featureVectorCount = 0;
+    node.left = null;
+    node.right = null;
+
+    moveLeavesInto(oldLeft, node);
+    moveLeavesInto(oldRight, node);
+  }
+
+  /**
+   * Appends every point in the subtree rooted at 'node' to 'leaf'. Must be called on the root.
+   */
+  private void moveLeavesInto(FlatKdTree node, FlatKdTree leaf) {
+    if (node.featureVectors == null) {
+      moveLeavesInto(node.left, leaf);
+      moveLeavesInto(node.right, leaf);
+      return;
+    }
+    for (int i = 0; i < node.featureVectorCount; i++) {
+      appendToLeaf(leaf, node.featureVectors, i * dimensions, node.data[i], node.ringPositions[i]);
+    }
+  }
+
+  /**
+   * Recomputes the bounds of this node from its points (leaf) or its children (stem).
+   * Returns true if the bounds changed.
+   */
+  private boolean recomputeBounds() {
+    double[] oldMinLimit = minLimit;
+    double[] oldMaxLimit = maxLimit;
+    boolean oldSingularity = singularity;
+    minLimit = null;
+    maxLimit = null;
+    singularity = true;
+
+    if (featureVectors != null) {
+      for (int i = 0; i < featureVectorCount; i++) {
+        extendBounds(featureVectors, i * dimensions);
+      }
+    } else {
+      includeChildBounds(left);
+      includeChildBounds(right);
+      if (minLimit != null) {
+        for (int i = 0; i < dimensions; i++) {
+          if (!(minLimit[i] == maxLimit[i])) {
+            singularity = false;
+            break;
+          }
+        }
+      }
+    }
+
+    return singularity != oldSingularity || !Arrays.equals(minLimit, oldMinLimit) || !Arrays.equals(maxLimit, oldMaxLimit);
+  }
+
+  /**
+   * Widens the bounds of this stem to include the bounds of 'child'
+   */
+  private void includeChildBounds(FlatKdTree child) {
+    if (child.featureVectorCount == 0 || child.minLimit == null) {
+      return;
+    }
+    if (minLimit == null) {
+      minLimit = child.minLimit.clone();
+      maxLimit = child.maxLimit.clone();
+      return;
+    }
+    for (int i = 0; i < dimensions; i++) {
+      if (Double.isNaN(minLimit[i]) || Double.isNaN(child.minLimit[i])) {
+        minLimit[i] = Double.NaN;
+        maxLimit[i] = Double.NaN;
+      } else {
+        minLimit[i] = Math.min(minLimit[i], child.minLimit[i]);
+        maxLimit[i] = Math.max(maxLimit[i], child.maxLimit[i]);
+      }
+    }
+  }
+
+  /**
+   * Rebuilds the subtree rooted at 'node', which holds no more than maximumRebuildSize points, from the points it holds, using
+   * median splits. The node keeps its place in the tree, and its bounds, which cover the same points as before. Must be called on the root.
+   */
+  private void rebuild(FlatKdTree node) {
+    if (rebuildData == null) {
+      rebuildFeatureVectors = new double[maximumRebuildSize * dimensions];
+      rebuildData = new int[maximumRebuildSize];
+      rebuildRingPositions = sizeLimited ? new int[maximumRebuildSize] : null;
+      rebuildOrder = new int[maximumRebuildSize];
+    }
+    int count = gatherPoints(node, rebuildFeatureVectors, rebuildData, rebuildRingPositions, 0);
+    for (int i = 0; i < count; i++) {
+      rebuildOrder[i] = i;
+    }
+    build(node, rebuildFeatureVectors, rebuildData, rebuildRingPositions, rebuildOrder, 0, count, 0);
+  }
+
+  /**
+   * Copies every point in the subtree rooted at 'node' into 'points' and 'values' (and, in a size-limited tree, its ring buffer
+   * position into 'ringPositions'), starting at 'index'.
+   * Returns the index after the last point copied.
+   */
+  private int gatherPoints(FlatKdTree node, double[] points, int[] values, int[] ringPositions, int index) {
+    if (node.featureVectors == null) {
+      index = gatherPoints(node.left, points, values, ringPositions, index);
+      return gatherPoints(node.right, points, values, ringPositions, index);
+    }
+    System.arraycopy(node.featureVectors, 0, points, index * dimensions, node.featureVectorCount * dimensions);
+    System.arraycopy(node.data, 0, values, index, node.featureVectorCount);
+    if (sizeLimited) {
+      System.arraycopy(node.ringPositions, 0, ringPositions, index, node.featureVectorCount);
+    }
+    return index + node.featureVectorCount;
+  }
+
+  /**
+   * Replaces the contents of the tree with the first 'count' points packed in 'points' (point i occupies
+   * [i * dimensions, (i + 1) * dimensions)) and their values, as though they had been added in order with addPoint.
+   * The tree is built top-down, splitting each node at the median of its widest axis, which takes O(n log n)
+   * and yields a balanced tree however clustered the points are.
+   * A size-limited tree keeps only the last maximumObservationCount points.
+   */
+  public void bulkLoad(double[] points, int[] values, int count) {
+    int first = 0;
+    if (sizeLimited && count > maximumObservationCount) {
+      first = count - maximumObservationCount;
+    }
+    int[] order = new int[count - first];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = first + i;
+    }
+
+    left = null;
+    right = null;
+    if (sizeLimited) {
+      Arrays.fill(ringLeaves, null);
+      ringHead = 0;
+    }
+
+    build(this, points, values, null, order, 0, order.length, first);
+  }
+
+  /**
+   * Makes 'node' hold the points order[from] .. order[to - 1], splitting at the median while there are more than a bucket's worth.
+   * In a size-limited tree, point i goes at ring buffer position ringPositions[i], or, if ringPositions is null, i - first.
+   * Must be called on the root.
+   */
+  private void build(FlatKdTree node, double[] points, int[] values, int[] ringPositions, int[] order, int from, int to, int first) {
+    int count = to - from;
+    node.featureVectorCount = count;
+    node.minLimit = null;
+    node.maxLimit = null;
+    node.singularity = true;
+
+    if (count > bucketSize) {
+      boundPoints(node, points, order, from, to);
+
+      if (!node.singularity) {
+        int axis = node.findWidestAxis();
+        select(points, order, from, to, from + count / 2, axis);
+        double splitValue = points[order[from + count / 2] * dimensions + axis];
+        int boundary = partition(points, order, from, to, axis, splitValue);
+
+        // If the median is the largest value on the axis, split just below it instead
+        if (boundary == to) {
+          double below = Double.NEGATIVE_INFINITY;
+          for (int i = from; i < to; i++) {
+            double value = points[order[i] * dimensions + axis];
+            if (value < splitValue && value > below) {
+              below = value;
+            }
+          }
+          splitValue = below;
+          boundary = partition(points, order, from, to, axis, splitValue);
+        }
+
+        if (boundary > from && boundary < to && !Double.isInfinite(splitValue) && !Double.isNaN(splitValue)) {
+          node.splitDimension = axis;
+          node.splitValue = splitValue;
+          node.featureVectors = null;
+          node.data = null;
+          node.ringPositions = null;
+          node.left = new ChildNode(node, 0);
+          node.right = new ChildNode(node, 0);
+          build(node.left, points, values, ringPositions, order, from, boundary, first);
+          build(node.right, points, values, ringPositions, order, boundary, to, first);
+          return;
+        }
+      }
+
+      // Can't split these points apart, so keep them all in one oversized leaf
+      node.minLimit = null;
+      node.maxLimit = null;
+      node.singularity = true;
+    }
+
+    // Make into leaf
+    int capacity = Math.max(bucketSize, count);
+    node.featureVectors = new double[capacity * dimensions];
+    node.data = new int[capacity];
+    node.ringPositions = sizeLimited ? new int[capacity] : null;
+    node.featureVectorCount = 0;
+    node.left = null;
+    node.right = null;
+    for (int i = from; i < to; i++) {
+      appendToLeaf(node, points, order[i] * dimensions, values[order[i]], ringPositions != null ? ringPositions[order[i]] : order[i] - first);
+    }
+  }
+
+  /**
+   * Sets the bounds of 'node' to those of the points order[from] .. order[to - 1], as extendBounds would, in one tight pass
+   * (falling back to extendBounds when a NaN turns up after the first point). The node is marked a singularity only if every dimension
+   * has the same non-NaN value throughout, which is all build needs to know whether to try splitting it; a leaf gets its exact
+   * singularity from appendToLeaf.
+   */
+  private void boundPoints(FlatKdTree node, double[] points, int[] order, int from, int to) {
+    double[] min = new double[dimensions];
+    double[] max = new double[dimensions];
+    System.arraycopy(points, order[from] * dimensions, min, 0, dimensions);
+    System.arraycopy(points, order[from] * dimensions, max, 0, dimensions);
+    boolean nan = false;
+    for (int i = from + 1; i < to; i++) {
+      int offset = order[i] * dimensions;
+      for (int d = 0; d < dimensions; d++) {
+        double value = points[offset + d];
+        if (value < min[d]) {
+          min[d] = value;
+        } else if (value > max[d]) {
+          max[d] = value;
+        } else if (value != value) {
+          nan = true;
+        }
+      }
+    }
+    if (nan) {
+      node.minLimit = null;
+      node.maxLimit = null;
+      for (int i = from; i < to; i++) {
+        node.extendBounds(points, order[i] * dimensions);
+      }
+      node.singularity = false;
+      return;
+    }
+    boolean singularity = true;
+    for (int d = 0; d < dimensions && singularity; d++) {
+      singularity = min[d] == max[d];
+    }
+    node.minLimit = min;
+    node.maxLimit = max;
+    node.singularity = singularity;
+  }
+
+  /**
+   * Reorders order[from] .. order[to - 1] so that the point at position 'nth' has the nth smallest value on 'axis',
+   * with no larger values before it and no smaller values after it (Hoare's selection)
+   */
+  private void select(double[] points, int[] order, int from, int to, int nth, int axis) {
+    int lo = from;
+    int hi = to - 1;
+    while (hi > lo) {
+      double pivot = points[order[(lo + hi) >>> 1] * dimensions + axis];
+      int i = lo;
+      int j = hi;
+      while (i <= j) {
+        while (Double.compare(points[order[i] * dimensions + axis], pivot) < 0) {
+          i++;
+        }
+        while (Double.compare(points[order[j] * dimensions + axis], pivot) > 0) {
+          j--;
+        }
+        if (i <= j) {
+          int swap = order[i];
+          order[i] = order[j];
+          order[j] = swap;
+          i++;
+          j--;
+        }
+      }
+      if (nth <= j) {
+        hi = j;
+      } else if (nth >= i) {
+        lo = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Moves the points that addPoint would send left of 'splitValue' on 'axis' to the front of order[from] .. order[to - 1].
+   * Returns the position of the first point that goes right.
+   */
+  private int partition(double[] points, int[] order, int from, int to, int axis, double splitValue) {
+    int boundary = from;
+    for (int i = from; i < to; i++) {
+      if (!(points[order[i] * dimensions + axis] > splitValue)) {
+        int swap = order[i];
+        order[i] = order[boundary];
+        order[boundary] = swap;
+        boundary++;
+      }
+    }
+    return boundary;
+  }
+
+  /**
+   * Writes the structure of the tree (split dimensions and values, bounds and leaf buckets) to 'out', so that readSnapshot can
+   * restore it without re-inserting or re-splitting a single point. The distance weights of a weighted tree are not included.
+   *
+   * Layout: a header of ints (SNAPSHOT_MAGIC, SNAPSHOT_VERSION, dimensions, size limit or -1, node, stem, bounded-node and point
+   * counts, ringHead, body length), then a body of primitive sections, each with
+   * one entry per node (or stem, or bounded node, or point) in pre-order: node flags, node point counts, split dimensions,
+   * split values, bounds, leaf points, leaf values, and (size-limited trees only) ring buffer positions.
+   */
+  public void writeSnapshot(OutputStream out) throws IOException {
+    ArrayList<FlatKdTree> nodes = new ArrayList<FlatKdTree>();
+    collectNodes(this, nodes);
+    int stemCount = 0;
+    int boundedCount = 0;
+    for (FlatKdTree node : nodes) {
+      if (node.featureVectors == null) {
+        stemCount++;
+      }
+      if (node.minLimit != null) {
+        boundedCount++;
+      }
+    }
+    int pointCount = featureVectorCount;
+
+    ByteBuffer body = ByteBuffer.allocate(snapshotBodyLength(nodes.size(), stemCount, boundedCount, pointCount));
+    for (FlatKdTree node : nodes) {
+      body.put((byte) ((node.featureVectors == null ? SNAPSHOT_STEM : 0) | (node.singularity ? SNAPSHOT_SINGULARITY : 0)
+          | (node.minLimit != null ? SNAPSHOT_BOUNDED : 0)));
+    }
+    IntBuffer counts = body.asIntBuffer();
+    for (FlatKdTree node : nodes) {
+      counts.put(node.featureVectorCount);
+    }
+    body.position(body.position() + nodes.size() * 4);
+    IntBuffer splitDimensions = body.asIntBuffer();
+    for (FlatKdTree node : nodes) {
+      if (node.featureVectors == null) {
+        splitDimensions.put(node.splitDimension);
+      }
+    }
+    body.position(body.position() + stemCount * 4);
+    DoubleBuffer doubles = body.asDoubleBuffer();
+    for (FlatKdTree node : nodes) {
+      if (node.featureVectors == null) {
+        doubles.put(node.splitValue);
+      }
+    }
+    for (FlatKdTree node : nodes) {
+      if (node.minLimit != null) {
+        doubles.put(node.minLimit);
+        doubles.put(node.maxLimit);
+      }
+    }
+    for (FlatKdTree node : nodes) {
+      if (node.featureVectors != null) {
+        doubles.put(node.featureVectors, 0, node.featureVectorCount * dimensions);
+      }
+    }
+    body.position(body.position() + doubles.position() * 8);
+    IntBuffer ints = body.asIntBuffer();
+    for (FlatKdTree node : nodes) {
+      if (node.featureVectors != null) {
+        ints.put(node.data, 0, node.featureVectorCount);
+      }
+    }
+    if (sizeLimited) {
+      for (FlatKdTree node : nodes) {
+        if (node.featureVectors != null) {
+          ints.put(node.ringPositions, 0, node.featureVectorCount);
+        }
+      }
+    }
+
+    DataOutputStream header = new DataOutputStream(out);
+    header.writeInt(SNAPSHOT_MAGIC);
+    header.writeInt(SNAPSHOT_VERSION);
+    header.writeInt(dimensions);
+    header.writeInt(sizeLimited ? maximumObservationCount : -1);
+    header.writeInt(nodes.size());
+    header.writeInt(stemCount);
+    header.writeInt(boundedCount);
+    header.writeInt(pointCount);
+    header.writeInt(ringHead);
+    header.writeInt(body.capacity());
+    header.write(body.array());
+    header.flush();
+  }
+
+  /**
+   * Replaces the contents of the tree with a snapshot written by writeSnapshot. The body is read with a single bulk read and
+   * copied straight into the nodes' arrays; nothing is re-inserted or re-split.
+   * The tree must have the same number of dimensions and the same size limit as the tree the snapshot was taken of.
+   */
+  public void readSnapshot(InputStream in) throws IOException {
+    DataInputStream header = new DataInputStream(in);
+    if (header.readInt() != SNAPSHOT_MAGIC) {
+      throw new IOException("Not a FlatKdTree snapshot");
+    }
+    int version = header.readInt();
+    if (version != SNAPSHOT_VERSION) {
+      throw new IOException("Unsupported FlatKdTree snapshot version " + version);
+    }
+    int snapshotDimensions = header.readInt();
+    int snapshotSizeLimit = header.readInt();
+    if (snapshotDimensions != dimensions || snapshotSizeLimit != (sizeLimited ? maximumObservationCount : -1)) {
+      throw new IOException("Snapshot of a tree with " + snapshotDimensions + " dimensions and size limit " + snapshotSizeLimit
+          + " does not fit a tree with " + dimensions + " dimensions and size limit " + maximumObservationCount);
+    }
+    int nodeCount = header.readInt();
+    int stemCount = header.readInt();
+    int boundedCount = header.readInt();
+    int pointCount = header.readInt();
+    int snapshotRingHead = header.readInt();
+    int bodyLength = header.readInt();
+    if (nodeCount < 1 || stemCount < 0 || boundedCount < 0 || pointCount < 0
+        || bodyLength != snapshotBodyLength(nodeCount, stemCount, boundedCount, pointCount)) {
+      throw new IOException("Corrupt FlatKdTree snapshot");
+    }
+    byte[] bytes = new byte[bodyLength];
+    header.readFully(bytes);
+
+    // Find the start of every section, then rebuild the nodes in pre-order
+    SnapshotReader reader = new SnapshotReader();
+    ByteBuffer body = ByteBuffer.wrap(bytes);
+    reader.flags = bytes;
+    body.position(nodeCount);
+    reader.counts = body.asIntBuffer();
+    body.position(body.position() + nodeCount * 4);
+    reader.splitDimensions = body.asIntBuffer();
+    body.position(body.position() + stemCount * 4);
+    reader.splitValues = body.asDoubleBuffer();
+    body.position(body.position() + stemCount * 8);
+    reader.bounds = body.asDoubleBuffer();
+    body.position(body.position() + boundedCount * dimensions * 2 * 8);
+    reader.points = body.asDoubleBuffer();
+    body.position(body.position() + pointCount * dimensions * 8);
+    reader.values = body.asIntBuffer();
+    body.position(body.position() + pointCount * 4);
+    reader.ringPositions = sizeLimited ? body.asIntBuffer() : null;
+
+    if (sizeLimited) {
+      Arrays.fill(ringLeaves, null);
+    }
+    try {
+      restore(this, reader);
+    } catch (RuntimeException e) {
+      throw new IOException("Corrupt FlatKdTree snapshot: " + e);
+    }
+    if (reader.nextNode != nodeCount || featureVectorCount != pointCount) {
+      throw new IOException("Corrupt FlatKdTree snapshot");
+    }
+
+    if (sizeLimited) {
+      ringHead = snapshotRingHead;
+    }
+  }
+
+  private int snapshotBodyLength(int nodeCount, int stemCount, int boundedCount, int pointCount) {
+    return nodeCount + nodeCount * 4 + stemCount * 4 + stemCount * 8 + boundedCount * dimensions * 2 * 8
+        + pointCount * dimensions * 8 + pointCount * 4 + (sizeLimited ? pointCount * 4 : 0);
+  }
+
+  /**
+   * Appends the subtree rooted at 'node' to 'nodes' in pre-order
+   */
+  private static void collectNodes(FlatKdTree node, List<FlatKdTree> nodes) {
+    nodes.add(node);
+    if (node.featureVectors == null) {
+      collectNodes(node.left, nodes);
+      collectNodes(node.right, nodes);
+    }
+  }
+
+  /**
+   * Read positions in the sections of a snapshot body
+   */
+  private static class SnapshotReader {
+    private byte[] flags;
+    private IntBuffer counts, splitDimensions, values, ringPositions;
+    private DoubleBuffer splitValues, bounds, points;
+    private int nextNode;
+  }
+
+  /**
+   * Makes 'node' the next node of the snapshot, and restores its subtree. Must be called on the root.
+   */
+  private void restore(FlatKdTree node, SnapshotReader reader) {
+    int flags = reader.flags[reader.nextNode++];
+    node.featureVectorCount = reader.counts.get();
+    node.singularity = (flags & SNAPSHOT_SINGULARITY) != 0;
+    if ((flags & SNAPSHOT_BOUNDED) != 0) {
+      node.minLimit = new double[dimensions];
+      node.maxLimit = new double[dimensions];
+      reader.bounds.get(node.minLimit);
+      reader.bounds.get(node.maxLimit);
+    } else {
+      node.minLimit = null;
+      node.maxLimit = null;
+    }
+
+    if ((flags & SNAPSHOT_STEM) != 0) {
+      node.splitDimension = reader.splitDimensions.get();
+      node.splitValue = reader.splitValues.get();
+      node.featureVectors = null;
+      node.data = null;
+      node.ringPositions = null;
+      node.left = new ChildNode(node, 0);
+      node.right = new ChildNode(node, 0);
+      restore(node.left, reader);
+      restore(node.right, reader);
+      return;
+    }
+
+    int count = node.featureVectorCount;
+    int capacity = Math.max(bucketSize, count);
+    node.left = null;
+    node.right = null;
+    node.featureVectors = new double[capacity * dimensions];
+    node.data = new int[capacity];
+    reader.points.get(node.featureVectors, 0, count * dimensions);
+    reader.values.get(node.data, 0, count);
+    if (sizeLimited) {
+      node.ringPositions = new int[capacity];
+      reader.ringPositions.get(node.ringPositions, 0, count);
+      for (int slot = 0; slot < count; slot++) {
+        ringLeaves[node.ringPositions[slot]] = node;
+        ringSlots[node.ringPositions[slot]] = slot;
+      }
+    } else {
+      node.ringPositions = null;
+    }
+  }
+
+  /**
+   * Calculates the nearest 'k' points (feature vectors) to a given feature vector 'featureVector'
+   * When the sequentialSorting option is true, the return value (i.e. the List<Entry<Integer>>) is sorted in descending order.
+   */
+  public List<Entry<Integer>> nearestNeighbor(double[] featureVector, int k, boolean sequentialSorting) {
+    ResultHeap resultHeap = new ResultHeap(k);
+    search(this, featureVector, resultHeap, 1.0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    ArrayList<Entry<Integer>> results = new ArrayList<Entry<Integer>>(resultHeap.values);
+    if (sequentialSorting) {
+      while (resultHeap.values > 0) {
+        resultHeap.removeLargest();
+        results.add(new Entry<Integer>(resultHeap.removedDist, resultHeap.removedData));
+      }
+    } else {
+      for (int i = 0; i < resultHeap.values; i++) {
+        results.add(new Entry<Integer>(resultHeap.distance[i], resultHeap.data[i]));
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * Calculates the nearest 'k' points (feature vectors) to a given feature vector 'featureVector' without allocating.
+   * The results are written into 'context', sorted in descending order like nearestNeighbor(featureVector, k, true),
+   * so the nearest neighbor is context.value(context.size() - 1).
+   * Returns the number of neighbors found.
+   */
+  public int nearestNeighbor(double[] featureVector, int k, QueryContext context) {
+    return nearestNeighbor(featureVector, k, 0.0, Integer.MAX_VALUE, context);
+  }
+
+  /**
+   * Approximate form of nearestNeighbor(featureVector, k, context), for callers that need a bounded query time more than an exact answer.
+   * A far branch is only searched if it could hold a point more than (1 + epsilon) times closer, as measured by the tree's
+   * distance function, than the current k-th nearest; and the search stops once it has scanned maximumLeafVisits leaves
+   * and found k candidates. Leaves nearest the query are scanned first, so the answer degrades gracefully as either limit tightens.
+   * epsilon = 0 with maximumLeafVisits = Integer.MAX_VALUE is an exact search.
+   */
+  public int nearestNeighbor(double[] featureVector, int k, double epsilon, int maximumLeafVisits, QueryContext context) {
+    return nearestNeighbor(featureVector, k, epsilon, maximumLeafVisits, Integer.MAX_VALUE, context);
+  }
+
+  /**
+   * Form of nearestNeighbor(featureVector, k, epsilon, maximumLeafVisits, context) that only considers points whose payload is at most
+   * 'maximumValue'. Ineligible points are skipped as each leaf is scanned, so they take no place in the result heap, and the query
+   * returns the k nearest eligible points (or all of them, if there are fewer than k) however many ineligible points are nearer.
+   * With payloads assigned in insertion order, this finds the nearest points that are at least a given age.
+   */
+  public int nearestNeighbor(double[] featureVector, int k, double epsilon, int maximumLeafVisits, int maximumValue, QueryContext context) {
+    context.resultHeap.reset(k);
+    search(this, featureVector, context.resultHeap, 1.0 + epsilon, maximumLeafVisits, maximumValue);
+    context.drainResultHeap();
+    return context.count;
+  }
+
+  /**
+   * Walks the subtree rooted at 'node', offering every point that might be among the nearest to 'resultHeap'.
+   * A far branch is skipped when its distance scaled by 'pruneFactor' exceeds the current range, and no more than
+   * 'leafVisitsRemaining' non-empty leaves are scanned once the heap is full. Points whose payload exceeds 'maximumValue' are never offered.
+   * Returns the number of leaf visits left. Must be called on the root, which owns the distance functions.
+   */
+  private int search(FlatKdTree node, double[] featureVector, ResultHeap resultHeap, double pruneFactor, int leafVisitsRemaining, int maximumValue) {
+    if (leafVisitsRemaining <= 0 && resultHeap.isFull()) {
+      return 0;
+    }
+
+    if (node.featureVectors != null) {
+      // At a leaf. Use the data.
+      if (node.featureVectorCount > 0) {
+        if (node.singularity) {
+          double dist = pointDist(node.featureVectors, 0, featureVector);
+          if (dist <= resultHeap.getMaxDist()) {
+            for (int i = 0; i < node.featureVectorCount; i++) {
+              if (node.data[i] <= maximumValue) {
+                resultHeap.addValue(dist, node.data[i]);
+              }
+            }
+          }
+        } else {
+          double[] distances = resultHeap.leafDistances(node.featureVectorCount);
+          bucketDist(node.featureVectors, node.featureVectorCount, featureVector, distances);
+          for (int i = 0; i < node.featureVectorCount; i++) {
+            if (node.data[i] <= maximumValue) {
+              resultHeap.addValue(distances[i], node.data[i]);
+            }
+          }
+        }
+        leafVisitsRemaining--;
+      }
+      return leafVisitsRemaining;
+    }
+
+    // At a stem, descend the most probably useful direction first
+    FlatKdTree nearCursor, farCursor;
+    if (featureVector[node.splitDimension] > node.splitValue) {
+      nearCursor = node.right;
+      farCursor = node.left;
+    } else {
+      nearCursor = node.left;
+      farCursor = node.right;
+    }
+    leafVisitsRemaining = search(nearCursor, featureVector, resultHeap, pruneFactor, leafVisitsRemaining, maximumValue);
+
+    // Check if it's worth descending the other side, now that the near side has narrowed the range
+    if (farCursor.featureVectorCount == 0
+        || (!farCursor.singularity && pointRegionDist(featureVector, farCursor.minLimit, farCursor.maxLimit) * pruneFactor > resultHeap.getMaxDist())) {
+      return leafVisitsRemaining;
+    }
+    return search(farCursor, featureVector, resultHeap, pruneFactor, leafVisitsRemaining, maximumValue);
+  }
+
+  /**
+   * Reusable result buffers for nearestNeighbor(double[], int, QueryContext).
+   * The buffers grow to the largest k asked for and are then reused, so steady-state queries allocate nothing.
+   * A QueryContext holds the results of the most recent query only, and must not be shared by two queries at once.
+   */
+  public static class QueryContext {
+    private final ResultHeap resultHeap;
+    private int[] values;
+    private double[] distances;
+    private int count;
+
+    public QueryContext() {
+      this(bucketSize);
+    }
+
+    public QueryContext(int initialCapacity) {
+      this.resultHeap = new ResultHeap(initialCapacity);
+      this.values = new int[initialCapacity];
+      this.distances = new double[initialCapacity];
+      this.count = 0;
+    }
+
+    /**
+     * The number of neighbors found by the most recent query
+     */
+    public int size() {
+      return count;
+    }
+
+    /**
+     * The payload of the i-th result; results are in descending order of distance
+     */
+    public int value(int i) {
+      return values[i];
+    }
+
+    /**
+     * The distance of the i-th result; results are in descending order of distance
+     */
+    public double distance(int i) {
+      return distances[i];
+    }
+
+    /**
+     * Empties the heap into the result buffers, largest distance first
+     */
+    private void drainResultHeap() {
+      if (values.length < resultHeap.values) {
+        values = new int[resultHeap.data.length];
+        distances = new double[resultHeap.data.length];
+      }
+      count = 0;
+      while (resultHeap.values > 0) {
+        resultHeap.removeLargest();
+        values[count] = resultHeap.removedData;
+        distances[count] = resultHeap.removedDist;
+        count++;
+      }
+    }
+  }
+
+  // Override in subclasses
+  // pointDist measures the distance between the point stored at 'offset' in 'points' and 'point'
+  protected abstract double pointDist(double[] points, int offset, double[] point);
+
+  protected abstract double pointRegionDist(double[] point, double[] min, double[] max);
+
+  // bucketDist measures the distance between 'point' and each of the first 'count' points in 'points', writing them into 'distances'.
+  // Subclasses with a faster whole-bucket kernel override this; the default measures one point at a time.
+  protected void bucketDist(double[] points, int count, double[] point, double[] distances) {
+    for (int i = 0; i < count; i++) {
+      distances[i] = pointDist(points, i * dimensions, point);
+    }
+  }
+
+  protected double getAxisWeightHint(int i) {
+    return 1.0;
+  }
+
+  /**
+   * Internal class for child nodes
+   */
+  private class ChildNode extends FlatKdTree {
+    private ChildNode(FlatKdTree parent, int capacity) {
+      super(parent, capacity);
+    }
+
+    // Distance measurements are always called from the root node
+    protected double pointDist(double[] points, int offset, double[] point) {
+      throw new IllegalStateException();
+    }
+
+    protected double pointRegionDist(double[] point, double[] min, double[] max) {
+      throw new IllegalStateException();
+    }
+  }
+
+  /**
+   * Class for tree with Weighted Squared Euclidean distancing
+   */
+  public static class WeightedSqrEuclid extends FlatKdTree {
+    private double[] weights;
+
+    public WeightedSqrEuclid(int dimensions, Integer sizeLimit) {
+      super(dimensions, sizeLimit);
+      this.weights = new double[dimensions];
+      Arrays.fill(this.weights, 1.0);
+    }
+
+    public void setWeights(double[] weights) {
+      this.weights = weights;
+    }
+
+    protected double getAxisWeightHint(int i) {
+      return weights[i];
+    }
+
+    protected double pointDist(double[] points, int offset, double[] point) {
+      double d = 0;
+
+      for (int i = 0; i < point.length; i++) {
+        double diff = (points[offset + i] - point[i]) * weights[i];
+        if (!Double.isNaN(diff)) {
+          d += diff * diff;
+        }
+      }
+
+      return d;
+    }
+
+    protected void bucketDist(double[] points, int count, double[] point, double[] distances) {
+      LaneDistanceKernel.weightedSqrEuclid(points, count, point.length, point, weights, distances);
+    }
+
+    protected double pointRegionDist(double[] point, double[] min, double[] max) {
+      double d = 0;
+
+      for (int i = 0; i < point.length; i++) {
+        double diff = 0;
+        if (point[i] > max[i]) {
+          diff = (point[i] - max[i]) * weights[i];
+        } else if (point[i] < min[i]) {
+          diff = (point[i] - min[i]) * weights[i];
+        }
+
+        if (!Double.isNaN(diff)) {
+          d += diff * diff;
+        }
+      }
+
+      return d;
+    }
+  }
+
+  /**
+   * Class for tree with Unweighted Squared Euclidean distancing
+   */
+  public static class SqrEuclid extends FlatKdTree {
+    public SqrEuclid(int dimensions, Integer sizeLimit) {
+      super(dimensions, sizeLimit);
+    }
+
+    protected double pointDist(double[] points, int offset, double[] point) {
+      double d = 0;
+
+      for (int i = 0; i < point.length; i++) {
+        double diff = (points[offset + i] - point[i]);
+        if (!Double.isNaN(diff)) {
+          d += diff * diff;
+        }
+      }
+
+      return d;
+    }
+
+    protected void bucketDist(double[] points, int count, double[] point, double[] distances) {
+      LaneDistanceKernel.sqrEuclid(points, count, point.length, point, distances);
+    }
+
+    protected double pointRegionDist(double[] point, double[] min, double[] max) {
+      double d = 0;
+
+      for (int i = 0; i < point.length; i++) {
+        double diff = 0;
+        if (point[i] > max[i]) {
+          diff = (point[i] - max[i]);
+        } else if (point[i] < min[i]) {
+          diff = (point[i] - min[i]);
+        }
+
+        if (!Double.isNaN(diff)) {
+          d += diff * diff;
+        }
+      }
+
+      return d;
+    }
+  }
+
+  /**
+   * Class for tree with Weighted Manhattan distancing
+   */
+  public static class WeightedManhattan extends FlatKdTree {
+    private double[] weights;
+
+    public WeightedManhattan(int dimensions, Integer sizeLimit) {
+      super(dimensions, sizeLimit);
+      this.weights = new double[dimensions];
+      Arrays.fill(this.weights, 1.0);
+    }
+
+    public void setWeights(double[] weights) {
+      this.weights = weights;
+    }
+
+    protected double getAxisWeightHint(int i) {
+      return weights[i];
+    }
+
+    protected double pointDist(double[] points, int offset, double[] point) {
+      double d = 0;
+
+      for (int i = 0; i < point.length; i++) {
+        double diff = (points[offset + i] - point[i]);
+        if (!Double.isNaN(diff)) {
+          d += ((diff < 0) ? -diff : diff) * weights[i];
+        }
+      }
+
+      return d;
+    }
+
+    protected double pointRegionDist(double[] point, double[] min, double[] max) {
+      double d = 0;
+
+      for (int i = 0; i < point.length; i++) {
+        double diff = 0;
+        if (point[i] > max[i]) {
+          diff = (point[i] - max[i]);
+        } else if (point[i] < min[i]) {
+          diff = (min[i] - point[i]);
+        }
+
+        if (!Double.isNaN(diff)) {
+          d += diff * weights[i];
+        }
+      }
+
+      return d;
+    }
+  }
+
+  /**
+   * Class for tree with Manhattan distancing
+   */
+  public static class Manhattan extends FlatKdTree {
+    public Manhattan(int dimensions, Integer sizeLimit) {
+      super(dimensions, sizeLimit);
+    }
+
+    protected double pointDist(double[] points, int offset, double[] point) {
+      double d = 0;
+
+      for (int i = 0; i < point.length; i++) {
+        double diff = (points[offset + i] - point[i]);
+        if (!Double.isNaN(diff)) {
+          d += (diff < 0) ? -diff : diff;
+        }
+      }
+
+      return d;
+    }
+
+    protected double pointRegionDist(double[] point, double[] min, double[] max) {
+      double d = 0;
+
+      for (int i = 0; i < point.length; i++) {
+        double diff = 0;
+        if (point[i] > max[i]) {
+          diff = (point[i] - max[i]);
+        } else if (point[i] < min[i]) {
+          diff = (min[i] - point[i]);
+        }
+
+        if (!Double.isNaN(diff)) {
+          d += diff;
+        }
+      }
+
+      return d;
+    }
+  }
+
+  /**
+   * Class for tracking up to 'size' closest values
+   * The heap maintains the heap property: that the data is sorted in descending order (i.e. largest values are first, and smallest values are last).
+   */
+  private static class ResultHeap {
+    private int[] data;
+    private double[] distance;
+    private int size;
+    private int values;
+    private double[] leafDistances;
+    public int removedData;
+    public double removedDist;
+
+    public ResultHeap(int size) {
+      this.data = new int[size];
+      this.distance = new double[size];
+      this.size = size;
+      this.values = 0;
+      this.leafDistances = new double[bucketSize];
+    }
+
+    /**
+     * Scratch space for the distances of a leaf's points, grown to hold at least 'count' of them
+     */
+    public double[] leafDistances(int count) {
+      if (leafDistances.length < count) {
+        leafDistances = new double[count];
+      }
+      return leafDistances;
+    }
+
+    /**
+     * Empties the heap so it can track up to 'size' values, growing the buffers only if they are too small
+     */
+    public void reset(int size) {
+      if (data.length < size) {
+        data = new int[size];
+        distance = new double[size];
+      }
+      this.size = size;
+      this.values = 0;
+    }
+
+    public void addValue(double dist, int value) {
+      // If there is still room in the heap
+      if (values < size) {
+        // Insert new value at the end
+        data[values] = value;
+        distance[values] = dist;
+        upHeapify(values);
+        values++;
+      }
+      // If there is no room left in the heap, and the new entry is lower
+      // than the max entry
+      else if (dist < distance[0]) {
+        // Replace the max entry with the new entry
+        data[0] = value;
+        distance[0] = dist;
+        downHeapify(0);
+      }
+    }
+
+    public void removeLargest() {
+      if (values == 0) {
+        throw new IllegalStateException();
+      }
+
+      removedData = data[0];
+      removedDist = distance[0];
+      values--;
+      data[0] = data[values];
+      distance[0] = distance[values];
+      downHeapify(0);
+    }
+
+    private void upHeapify(int c) {
+      for (int p = (c - 1) / 2; c != 0 && distance[c] > distance[p]; c = p, p = (c - 1) / 2) {
+        int pData = data[p];
+        double pDist = distance[p];
+        data[p] = data[c];
+        distance[p] = distance[c];
+        data[c] = pData;
+        distance[c] = pDist;
+      }
+    }
+
+    private void downHeapify(int p) {
+      for (int c = p * 2 + 1; c < values; p = c, c = p * 2 + 1) {
+        if (c + 1 < values && distance[c] < distance[c + 1]) {
+          c++;
+        }
+        if (distance[p] < distance[c]) {
+          // Swap the points
+          int pData = data[p];
+          double pDist = distance[p];
+          data[p] = data[c];
+          distance[p] = distance[c];
+          data[c] = pData;
+          distance[c] = pDist;
+        } else {
+          break;
+        }
+      }
+    }
+
+    public boolean isFull() {
+      return values >= size;
+    }
+
+    public double getMaxDist() {
+      if (values < size) {
+        return Double.POSITIVE_INFINITY;
+      }
+      return distance[0];
+    }
+  }
+}
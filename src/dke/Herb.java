@@ -4,12 +4,12 @@ import robocode.*;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.Point2D;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
 
 public class Herb extends DkeRobot {
   public MovementStrategy movementStrategy;
   public FireControlSystem fireControlSystem;
+  public ArrayList<Paintable> paintables;     // the components that draw debug graphics, found once in initialize()
 
   @Override
   public void run() {
@@ -32,6 +32,14 @@ public class Herb extends DkeRobot {
     movementStrategy = new RandomMovementStrategy(this);
     
     fireControlSystem = new StateLoggingFireControlSystem(this);
+    
+    paintables = new ArrayList<Paintable>();
+    if(movementStrategy instanceof Paintable) {
+      paintables.add((Paintable)movementStrategy);
+    }
+    if(fireControlSystem instanceof Paintable) {
+      paintables.add((Paintable)fireControlSystem);
+    }
   }
 
   /*
@@ -62,27 +70,23 @@ public class Herb extends DkeRobot {
   @Override
   public void onSkippedTurn(SkippedTurnEvent e) {
     System.out.println("Skipping a turn!");
+    fireControlSystem.onSkippedTurn(e);
+  }
+
+  @Override
+  public void onRoundEnded(RoundEndedEvent e) {
+    fireControlSystem.onRoundEnded(e);
   }
   
   public void onPaint(Graphics2D g) {
     // Set the paint color to a red half transparent color
     g.setColor(new Color(0xff, 0x00, 0x00, 0x80));
 
-    try {
-      Method m = movementStrategy.getClass().getMethod("onPaint", new Class[]{Graphics2D.class});
-      m.invoke(movementStrategy, new Object[]{g});
-      m = fireControlSystem.getClass().getMethod("onPaint", new Class[]{Graphics2D.class});
-      m.invoke(fireControlSystem, new Object[]{g});
-    } catch (SecurityException e) {
-      System.out.println(e.getStackTrace());
-    } catch (NoSuchMethodException e) {
-      System.out.println(e.getStackTrace());
-    } catch (IllegalArgumentException e) {
-      System.out.println(e.getStackTrace());
-    } catch (IllegalAccessException e) {
-      System.out.println(e.getStackTrace());
-    } catch (InvocationTargetException e) {
-      System.out.println(e.getStackTrace());
+    if(paintables == null) {     // painting can start before run() has initialized the robot
+      return;
+    }
+    for(int i = 0; i < paintables.size(); i++) {
+      paintables.get(i).onPaint(g);
     }
   }
 }
\ No newline at end of file
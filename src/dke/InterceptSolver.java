@@ -0,0 +1,149 @@
+package dke;
+
+import java.awt.geom.Point2D;
+
+// InterceptSolver finds where a bullet fired now meets an enemy moving along a predicted path.
+//
+// A path is the enemy's position now (time 0) followed by its projected positions 1, 2, 3, ... ticks from now, and between two ticks the enemy
+// is assumed to move in a straight line, so the path is piecewise linear. A bullet fired from (shooterX, shooterY) has travelled bulletSpeed * t
+// after t ticks. The solver scans the path for the first tick at which the bullet has travelled at least as far as the enemy is from the shooter,
+// then solves the quadratic |P(t) - shooter| = bulletSpeed * t on the segment leading up to it, which gives the exact (sub-tick) time the two meet.
+// If the bullet never catches up within the path, the answer is the path's last position, at the path's last tick.
+//
+// solve() answers for one path, pulled lazily from a ProjectionCursor. solveAll() answers for several paths from the same start, and optionally
+// several bullet speeds, in one pass: the ticks are scanned once, each projected position's distance from the shooter is computed once for every
+// speed, and the scan ends when every (path, speed) pair is answered.
+public class InterceptSolver {
+  // solve()'s answer: where, and how many ticks from now, the bullet meets the enemy
+  public double interceptX, interceptY, interceptTime;
+  // solveAll()'s answers, one per path (and bullet speed); NaN for an empty path
+  public double[] interceptXs, interceptYs, interceptTimes;
+  private double[] singleBulletSpeed;
+
+  public InterceptSolver() {
+    interceptX = interceptY = interceptTime = Double.NaN;
+    interceptXs = interceptYs = interceptTimes = new double[0];
+    singleBulletSpeed = new double[1];
+  }
+
+  // Solves for the path 'path' produces (advancing it only as far as the intercept), and returns false if the path is empty.
+  public boolean solve(ProjectionCursor path, double shooterX, double shooterY, double bulletSpeed) {
+    double prevX = path.originX(), prevY = path.originY();
+    while(path.next()) {
+      double x = path.x(), y = path.y();
+      int step = path.step();
+      if(bulletSpeed * step >= Point2D.distance(shooterX, shooterY, x, y)) {
+        double u = segmentIntercept(prevX, prevY, x, y, step - 1, shooterX, shooterY, bulletSpeed);
+        interceptX = prevX + u * (x - prevX);
+        interceptY = prevY + u * (y - prevY);
+        interceptTime = step - 1 + u;
+        return true;
+      }
+      prevX = x;
+      prevY = y;
+    }
+    
+    if(path.step() > 0) {
+      interceptX = path.x();
+      interceptY = path.y();
+      interceptTime = path.step();
+      return true;
+    }
+    interceptX = interceptY = interceptTime = Double.NaN;
+    return false;
+  }
+
+  // Solves for every path of 'paths', writing the answers into interceptXs, interceptYs and interceptTimes, and returns how many paths were answered
+  // (every path but the empty ones).
+  public int solveAll(ProjectedPaths paths, double shooterX, double shooterY, double bulletSpeed) {
+    singleBulletSpeed[0] = bulletSpeed;
+    return solveAll(paths, shooterX, shooterY, singleBulletSpeed, 1);
+  }
+
+  // Solves for every path of 'paths' and each of the first speedCount bullet speeds (e.g. one per firepower being considered), all in the same pass.
+  // The answer for path p at bulletSpeeds[s] is at index s * paths.count + p of interceptXs, interceptYs and interceptTimes.
+  // Returns how many (path, speed) pairs were answered.
+  public int solveAll(ProjectedPaths paths, double shooterX, double shooterY, double[] bulletSpeeds, int speedCount) {
+    int answerCount = paths.count * speedCount;
+    if(interceptTimes.length < answerCount) {
+      interceptXs = new double[answerCount];
+      interceptYs = new double[answerCount];
+      interceptTimes = new double[answerCount];
+    }
+    
+    int longestPath = 0;
+    int unanswered = 0;
+    for(int p = 0; p < paths.count; p++) {
+      longestPath = Math.max(longestPath, paths.lengths[p]);
+      if(paths.lengths[p] > 0) {
+        unanswered += speedCount;
+      }
+    }
+    for(int i = 0; i < answerCount; i++) {
+      interceptXs[i] = interceptYs[i] = interceptTimes[i] = Double.NaN;
+    }
+    
+    int answered = 0;
+    for(int step = 1; step <= longestPath && unanswered > 0; step++) {
+      for(int p = 0; p < paths.count; p++) {
+        if(step > paths.lengths[p]) {
+          continue;
+        }
+        int i = paths.offset(p) + step - 1;
+        double x = paths.xs[i], y = paths.ys[i];
+        double dx = x - shooterX, dy = y - shooterY;
+        double distanceSquared = dx * dx + dy * dy;
+        
+        for(int s = 0; s < speedCount; s++) {
+          int answer = s * paths.count + p;
+          if(!Double.isNaN(interceptTimes[answer])) {
+            continue;
+          }
+          double reach = bulletSpeeds[s] * step;
+          if(distanceSquared <= reach * reach) {
+            double prevX = step == 1 ? paths.startX : paths.xs[i - 1];
+            double prevY = step == 1 ? paths.startY : paths.ys[i - 1];
+            double u = segmentIntercept(prevX, prevY, x, y, step - 1, shooterX, shooterY, bulletSpeeds[s]);
+            interceptXs[answer] = prevX + u * (x - prevX);
+            interceptYs[answer] = prevY + u * (y - prevY);
+            interceptTimes[answer] = step - 1 + u;
+          } else if(step == paths.lengths[p]) {
+            interceptXs[answer] = x;
+            interceptYs[answer] = y;
+            interceptTimes[answer] = step;
+          } else {
+            continue;
+          }
+          answered++;
+          unanswered--;
+        }
+      }
+    }
+    return answered;
+  }
+
+  // The enemy moves from (x0, y0) at time t0 to (x1, y1) at time t0 + 1; the bullet is short of it at t0 and has reached it by t0 + 1.
+  // Returns the fraction u of the segment (0 <= u <= 1) at which they meet, the first root of
+  //   g(u) = |(x0, y0) + u * ((x1, y1) - (x0, y0)) - shooter|^2 - (bulletSpeed * (t0 + u))^2,
+  // which is positive at u = 0 and not positive at u = 1.
+  static double segmentIntercept(double x0, double y0, double x1, double y1, double t0, double shooterX, double shooterY, double bulletSpeed) {
+    double ax = x0 - shooterX, ay = y0 - shooterY;
+    double dx = x1 - x0, dy = y1 - y0;
+    double bulletSpeedSquared = bulletSpeed * bulletSpeed;
+    double a = dx * dx + dy * dy - bulletSpeedSquared;     // negative whenever the bullet is faster than the enemy, as Robocode's always are
+    double b = 2 * (ax * dx + ay * dy - bulletSpeedSquared * t0);
+    double c = ax * ax + ay * ay - bulletSpeedSquared * t0 * t0;
+    double u;
+    if(Math.abs(a) < 1e-12) {
+      u = b != 0 ? -c / b : 1;
+    } else {
+      double root = Math.sqrt(Math.max(0, b * b - 4 * a * c));
+      double u1 = (-b - root) / (2 * a), u2 = (-b + root) / (2 * a);
+      double lower = Math.min(u1, u2), upper = Math.max(u1, u2);
+      // g changes sign once between 0 and 1: if a > 0 that is at the lower root; if a < 0, g is positive between the roots, so 0 lies between them
+      // and it is at the upper root.
+      u = lower >= 0 ? lower : upper;
+    }
+    return Math.max(0, Math.min(1, u));
+  }
+}
@@ -28,6 +28,9 @@ import java.util.List;
 /**
  * An efficient well-optimized kd-tree
  * 
+ * Queries keep no traversal state in the nodes, so any number of queries may run against the same tree at once,
+ * from any number of threads. addPoint must not run concurrently with queries or with another addPoint.
+ * 
  * @author Rednaxela
  */
 public abstract class KdTree<T> {
@@ -56,9 +59,6 @@ public abstract class KdTree<T> {
   private double[] minLimit, maxLimit;
   private boolean singularity;
 
-  // Temporary
-  private Status status;
-
   /**
    * Construct a KdTree with a given number of dimensions and a limit on maximum size (after which it throws away old points)
    */
@@ -278,13 +278,6 @@ public abstract class KdTree<T> {
     // If we got here... we couldn't find the value to remove. Weird...
   }
 
-  /**
-   * Enumeration representing the status of a node during the running
-   */
-  private static enum Status {
-    NONE, LEFTVISITED, RIGHTVISITED, ALLVISITED
-  }
-
   /**
    * Stores a distance and value to output
    */
@@ -292,7 +285,7 @@ public abstract class KdTree<T> {
     public final double distance;
     public final T value;
 
-    private Entry(double distance, T value) {
+    Entry(double distance, T value) {
       this.distance = distance;
       this.value = value;
     }
@@ -304,80 +297,8 @@ public abstract class KdTree<T> {
    */
   //@SuppressWarnings("unchecked")
   public List<Entry<T>> nearestNeighbor(double[] featureVector, int k, boolean sequentialSorting) {
-    KdTree<T> cursor = this;
-    cursor.status = Status.NONE;
-    double range = Double.POSITIVE_INFINITY;
     ResultHeap resultHeap = new ResultHeap(k);
-
-    do {
-      if (cursor.status == Status.ALLVISITED) {
-        // At a fully visited part. Move up the tree
-        cursor = cursor.parent;
-        continue;
-      }
-
-      if (cursor.status == Status.NONE && cursor.featureVectors != null) {
-        // At a leaf. Use the data.
-        if (cursor.featureVectorCount > 0) {
-          if (cursor.singularity) {
-            double dist = pointDist(cursor.featureVectors[0], featureVector);
-            if (dist <= range) {
-              for (int i = 0; i < cursor.featureVectorCount; i++) {
-                resultHeap.addValue(dist, cursor.data[i]);
-              }
-            }
-          } else {
-            for (int i = 0; i < cursor.featureVectorCount; i++) {
-              double dist = pointDist(cursor.featureVectors[i], featureVector);
-              resultHeap.addValue(dist, cursor.data[i]);
-            }
-          }
-          range = resultHeap.getMaxDist();
-        }
-
-        if (cursor.parent == null) {
-          break;
-        }
-        cursor = cursor.parent;
-        continue;
-      }
-
-      // Going to descend
-      KdTree<T> nextCursor = null;
-      if (cursor.status == Status.NONE) {
-        // At a fresh node, descend the most probably useful direction
-        if (featureVector[cursor.splitDimension] > cursor.splitValue) {
-          // Descend right
-          nextCursor = cursor.right;
-          cursor.status = Status.RIGHTVISITED;
-        } else {
-          // Descend left;
-          nextCursor = cursor.left;
-          cursor.status = Status.LEFTVISITED;
-        }
-      } else if (cursor.status == Status.LEFTVISITED) {
-        // Left node visited, descend right.
-        nextCursor = cursor.right;
-        cursor.status = Status.ALLVISITED;
-      } else if (cursor.status == Status.RIGHTVISITED) {
-        // Right node visited, descend left.
-        nextCursor = cursor.left;
-        cursor.status = Status.ALLVISITED;
-      }
-
-      // Check if it's worth descending. Assume it is if it's sibling has
-      // not been visited yet.
-      if (cursor.status == Status.ALLVISITED) {
-        if (nextCursor.featureVectorCount == 0
-            || (!nextCursor.singularity && pointRegionDist(featureVector, nextCursor.minLimit, nextCursor.maxLimit) > range)) {
-          continue;
-        }
-      }
-
-      // Descend down the tree
-      cursor = nextCursor;
-      cursor.status = Status.NONE;
-    } while (cursor.parent != null || cursor.status != Status.ALLVISITED);
+    search(this, featureVector, resultHeap);
 
     ArrayList<Entry<T>> results = new ArrayList<Entry<T>>(resultHeap.values);
     if (sequentialSorting) {
@@ -394,6 +315,50 @@ public abstract class KdTree<T> {
     return results;
   }
 
+  /**
+   * Walks the subtree rooted at 'node', offering every point that might be among the nearest to 'resultHeap'.
+   * Must be called on the root, which owns the distance functions.
+   */
+  private void search(KdTree<T> node, double[] featureVector, ResultHeap resultHeap) {
+    if (node.featureVectors != null) {
+      // At a leaf. Use the data.
+      if (node.featureVectorCount > 0) {
+        if (node.singularity) {
+          double dist = pointDist(node.featureVectors[0], featureVector);
+          if (dist <= resultHeap.getMaxDist()) {
+            for (int i = 0; i < node.featureVectorCount; i++) {
+              resultHeap.addValue(dist, node.data[i]);
+            }
+          }
+        } else {
+          for (int i = 0; i < node.featureVectorCount; i++) {
+            double dist = pointDist(node.featureVectors[i], featureVector);
+            resultHeap.addValue(dist, node.data[i]);
+          }
+        }
+      }
+      return;
+    }
+
+    // At a stem, descend the most probably useful direction first
+    KdTree<T> nearCursor, farCursor;
+    if (featureVector[node.splitDimension] > node.splitValue) {
+      nearCursor = node.right;
+      farCursor = node.left;
+    } else {
+      nearCursor = node.left;
+      farCursor = node.right;
+    }
+    search(nearCursor, featureVector, resultHeap);
+
+    // Check if it's worth descending the other side, now that the near side has narrowed the range
+    if (farCursor.featureVectorCount == 0
+        || (!farCursor.singularity && pointRegionDist(featureVector, farCursor.minLimit, farCursor.maxLimit) > resultHeap.getMaxDist())) {
+      return;
+    }
+    search(farCursor, featureVector, resultHeap);
+  }
+
   // Override in subclasses
   protected abstract double pointDist(double[] p1, double[] p2);
 
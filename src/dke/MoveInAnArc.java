@@ -6,7 +6,7 @@ import java.awt.geom.Point2D;
 
 import robocode.Rules;
 
-public class MoveInAnArc implements MovementInstruction {
+public class MoveInAnArc implements MovementInstruction, Paintable {
   public enum State {
     Initial, TurningToInitialAngle, Driving, Finished
   }
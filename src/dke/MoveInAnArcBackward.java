@@ -6,7 +6,7 @@ import java.awt.geom.Point2D;
 
 import robocode.Rules;
 
-public class MoveInAnArcBackward implements MovementInstruction {
+public class MoveInAnArcBackward implements MovementInstruction, Paintable {
   public enum State {
     Initial, TurningToInitialAngle, Driving, Finished
   }
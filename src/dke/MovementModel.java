@@ -6,6 +6,8 @@ import java.util.ArrayList;
 public interface MovementModel<StateSequenceType,StateTreeType> {
   public void logStateObservation(String robotName, EnvironmentStateTuple observation);
   public ArrayList<Point2D.Double> predictFutureMovement(String enemyRobotName, int numberOfPositionsToPredict);
+  // Lazy form of predictFutureMovement: the same positions (up to maximumNumberOfPositions of them), projected one at a time as the cursor is advanced.
+  public ProjectionCursor projectFutureMovement(String enemyRobotName, int maximumNumberOfPositions);
   public StateSequenceType getStateSequence(String enemyRobotName);
   public StateTreeType getStateTree(String enemyRobotName);
 }
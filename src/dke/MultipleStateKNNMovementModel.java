@@ -3,9 +3,8 @@ package dke;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 
-import dke.KdTree.Entry;
+import dke.FlatKdTree.QueryContext;
 
 public class MultipleStateKNNMovementModel implements MovementModel<EnvironmentStateSequence, EnvironmentStateSequenceTree> {
   public DkeRobot robot;
@@ -13,6 +12,22 @@ public class MultipleStateKNNMovementModel implements MovementModel<EnvironmentS
   int numberOfStatesPerCompositeFeatureVector;
   int numberOfStatesToDiscard;
   public HashMap<String, Pair<EnvironmentStateSequence, EnvironmentStateSequenceTree>> observationLog;
+  public HashMap<String, CompositeFeatureVectorWindow> featureVectorWindows;
+  QueryContext nearestNeighbors;
+  // Approximate search settings for the per-scan neighbor lookup; the defaults give an exact search.
+  public double approximationEpsilon;
+  public int maximumLeafVisits;
+  public TickBudget tickBudget;     // when set, the query and projection stages are timed against it
+  public PredictionCache predictionCache;     // this tick's neighbors, shared by every prediction until the next observation
+  // Every neighbor query asks for at least this many neighbors, so that whichever prediction comes first in a tick (e.g. a nearest neighbor
+  // gun aiming before an ensemble gun) finds enough for every later one, and the tree is searched once per tick.
+  public int minimumNeighborsPerQuery;
+  double[] projectedXs, projectedYs;     // projection buffers, reused for every prediction
+  int[] neighborIndices;
+  double[] neighborDistances;
+  ProjectionCursor projectionCursor;
+  ProjectionCursor pathCursor;     // projectFutureMovements' own, so it never invalidates the cursor projectFutureMovement handed out
+  ProjectedPaths projectedPaths;
   
   public MultipleStateKNNMovementModel(DkeRobot robot, int numberOfStatesPerCompositeFeatureVector, int kNearestNeighbors, int numberOfStatesToDiscard) {
     this.robot = robot;
@@ -20,6 +35,20 @@ public class MultipleStateKNNMovementModel implements MovementModel<EnvironmentS
     this.numberOfStatesPerCompositeFeatureVector = numberOfStatesPerCompositeFeatureVector;
     this.numberOfStatesToDiscard = numberOfStatesToDiscard;
     this.observationLog = new HashMap<String, Pair<EnvironmentStateSequence, EnvironmentStateSequenceTree>>();
+    this.featureVectorWindows = new HashMap<String, CompositeFeatureVectorWindow>();
+    this.nearestNeighbors = new QueryContext();
+    this.approximationEpsilon = 0.0;
+    this.maximumLeafVisits = Integer.MAX_VALUE;
+    this.tickBudget = null;
+    this.predictionCache = new PredictionCache();
+    this.minimumNeighborsPerQuery = 1;
+    this.projectedXs = new double[0];
+    this.projectedYs = new double[0];
+    this.neighborIndices = new int[0];
+    this.neighborDistances = new double[0];
+    this.projectionCursor = new ProjectionCursor();
+    this.pathCursor = new ProjectionCursor();
+    this.projectedPaths = new ProjectedPaths();
   }
   
   public void logStateObservation(String robotName, EnvironmentStateTuple observation) {
@@ -27,106 +56,256 @@ public class MultipleStateKNNMovementModel implements MovementModel<EnvironmentS
       observationLog.put(robotName,
                          new Pair<EnvironmentStateSequence, EnvironmentStateSequenceTree>(new EnvironmentStateSequence(),
                                                                                           new EnvironmentStateSequenceTree(numberOfStatesPerCompositeFeatureVector)));
+      featureVectorWindows.put(robotName, new CompositeFeatureVectorWindow(numberOfStatesPerCompositeFeatureVector));
     }
     
     EnvironmentStateSequence observationSequence = observationLog.get(robotName).first;
     EnvironmentStateSequenceTree observationTree = observationLog.get(robotName).last;
+    CompositeFeatureVectorWindow featureVectorWindow = featureVectorWindows.get(robotName);
     
     observationSequence.add(observation);
     int indexOfLastObservation = observationSequence.size() - 1;
-    double[] compositeFeatureVector = observationSequence.endSliceFeatureVector(indexOfLastObservation, numberOfStatesPerCompositeFeatureVector);
-    observationTree.addPoint(compositeFeatureVector, indexOfLastObservation);
+    if(observationSequence.roundStartIndex(indexOfLastObservation) == indexOfLastObservation) {
+      featureVectorWindow.clear();     // a new round: the observations before this one are not its predecessors
+    }
+    featureVectorWindow.add(observation);     // the window now holds endSliceFeatureVector(indexOfLastObservation, numberOfStatesPerCompositeFeatureVector)
+    observationTree.addPoint(featureVectorWindow.compositeFeatureVector(), indexOfLastObservation);     // addPoint copies the vector
+    predictionCache.invalidate(robotName);
 //    System.out.println(robot.getTime() + " @ observationSequence[" + indexOfObservation + "] = " + observation);
   }
   
   // Returns a list of points representing the position history of the enemy robot.
   // The first point represents the position that most closely resembles the enemy bot's next position.
   public ArrayList<Point2D.Double> predictFutureMovement(String enemyRobotName, int numberOfPositionsToPredict) {
-    EnvironmentStateSequence stateSeq = getStateSequence(enemyRobotName);
-    if(stateSeq != null) {
-      EnvironmentStateTuple currentState = stateSeq.last();
-      double[] currentCompositeFeatureVector = stateSeq.endSliceFeatureVector(stateSeq.size() - 1, numberOfStatesPerCompositeFeatureVector);
-      EnvironmentStateSequenceTree stateTree = getStateTree(enemyRobotName);
-      
-      if(currentState != null && stateTree != null) {
-        // 1. find index of the environment state tuple(s) that most closely resemble(s) (i.e. is/are the nearest neighbor(s) of) the current/most-recent environment state.
-        List<Entry<Integer>> nearestNeighbors = stateTree.nearestNeighbor(currentCompositeFeatureVector, k + numberOfStatesToDiscard, true);
-//        System.out.println(nearestNeighbors.size());
-        // NOTE: nearestNeighbors is sorted by neighbor distance, in descending order. So, the nearest neighbors are at the end of the list.
-        
-        if(nearestNeighbors.size() > 0) {
-          // find the nearest neighbor that was observed longer than 'numberOfStatesToDiscard' turns ago.
-          Entry<Integer> tempFirstIndex = null;
-          
-          // We don't want to consider any of the states that were very very recent (and therefore too-near a neighbor) as the nearest neighbor,
-          // because we need some history *after* the movement.
-          for(int i = nearestNeighbors.size() - 1; i >= 0 ; i--) {
-            tempFirstIndex = nearestNeighbors.get(i);
-            // if the observation at index i is at least as old or older than (current time - numberOfStatesToDiscard), then we want to consider it the nearest neighbor of interest.
-            if(stateSeq.get(tempFirstIndex.value).time <= currentState.time - numberOfStatesToDiscard) {
-              break;
-            }
-          }
-//          System.out.println(tempFirstIndex.value + ": " + stateSeq.get(tempFirstIndex.value).time + " " + currentState.time);
-          
-          // 2. identify the environment state tuples that immediately follow the environment state tuple found in the previous step.
-          List<EnvironmentStateTuple> historicalStatesWithWhichToPredictFuture = stateSeq.slice(tempFirstIndex.value, numberOfPositionsToPredict);
-//          System.out.println(historicalStatesWithWhichToPredictFuture.size());
-          
-          // 3. project the historical enemy movements identified in step 2 onto the enemey's current state
-          ArrayList<Point2D.Double> projectedEnemyPositions = projectEnemyFuturePositions(currentState, historicalStatesWithWhichToPredictFuture);
-          
-          return projectedEnemyPositions;
-        }
-      }
+    ArrayList<Pair<ArrayList<Point2D.Double>, Double>> predictions = predictFutureMovements(enemyRobotName, numberOfPositionsToPredict, 1);
+    if(predictions.size() > 0) {
+      return predictions.get(0).first;
     }
 //    System.out.println("empty");
     return new ArrayList<Point2D.Double>();
   }
   
+  // Returns up to 'ensembleSize' predictions of the enemy robot's future positions, one per neighbor of the current state that is old enough
+  // to replay, nearest neighbor first. Each prediction is paired with its neighbor's (squared) distance from the current state.
+  // All of the predictions come from the one tree query, which is cached until the next observation of the enemy is logged.
+  public ArrayList<Pair<ArrayList<Point2D.Double>, Double>> predictFutureMovements(String enemyRobotName, int numberOfPositionsToPredict, int ensembleSize) {
+    ArrayList<Pair<ArrayList<Point2D.Double>, Double>> predictions = new ArrayList<Pair<ArrayList<Point2D.Double>, Double>>();
+    PredictionCache.Entry neighbors = findReplayableNeighbors(enemyRobotName, Math.max(k, ensembleSize));
+    if(neighbors != null && neighbors.count > 0) {
+      EnvironmentStateSequence stateSeq = getStateSequence(enemyRobotName);
+      int currentIndex = stateSeq.size() - 1;
+      if(tickBudget != null) {
+        tickBudget.start(TickBudget.Stage.Project);
+      }
+      
+      for(int i = 0; i < neighbors.count && i < ensembleSize; i++) {
+        int tempFirstIndex = neighbors.observationIndices[i];
+        // 2. the observations in [tempFirstIndex, tempFirstIndex + numberOfPositionsToPredict) immediately follow (and include) the environment state tuple found in the previous step.
+        // 3. project the historical enemy movements identified in step 2 onto the enemey's current state
+        predictions.add(new Pair<ArrayList<Point2D.Double>, Double>(projectEnemyFuturePositions(stateSeq, currentIndex, tempFirstIndex, numberOfPositionsToPredict),
+                                                                    neighbors.distances[i]));
+      }
+      
+      if(tickBudget != null) {
+        tickBudget.stop(TickBudget.Stage.Project);
+      }
+    }
+    return predictions;
+  }
+  
+  // Packed form of predictFutureMovements: projects the same paths into a ProjectedPaths (reused by the next call), allocating nothing.
+  public ProjectedPaths projectFutureMovements(String enemyRobotName, int numberOfPositionsToPredict, int ensembleSize) {
+    return projectFutureMovements(enemyRobotName, numberOfPositionsToPredict, ensembleSize, 0, 0, 0);
+  }
+  
+  // As above, but each path is projected only until a bullet of bulletSpeed, fired now from (shooterX, shooterY), could reach the enemy
+  // along it: the positions after that tick can't change where that bullet, or any faster one, meets the enemy (see InterceptSolver).
+  // At close range that is a few steps per path instead of numberOfPositionsToPredict. A bulletSpeed of 0 projects the whole paths.
+  public ProjectedPaths projectFutureMovements(String enemyRobotName, int numberOfPositionsToPredict, int ensembleSize,
+                                               double shooterX, double shooterY, double bulletSpeed) {
+    PredictionCache.Entry neighbors = findReplayableNeighbors(enemyRobotName, Math.max(k, ensembleSize));
+    if(neighbors == null) {
+      projectedPaths.reset(0, 0, Double.NaN, Double.NaN);
+      return projectedPaths;
+    }
+    
+    EnvironmentStateSequence stateSeq = getStateSequence(enemyRobotName);
+    int currentIndex = stateSeq.size() - 1;
+    int pathCount = Math.min(neighbors.count, ensembleSize);
+    projectedPaths.reset(pathCount, numberOfPositionsToPredict, stateSeq.enemyXAt(currentIndex), stateSeq.enemyYAt(currentIndex));
+    if(tickBudget != null) {
+      tickBudget.start(TickBudget.Stage.Project);
+    }
+    
+    for(int i = 0; i < pathCount; i++) {
+      if(bulletSpeed > 0) {
+        projectedPaths.lengths[i] = projectEnemyFuturePositionsUntilReached(stateSeq, currentIndex, neighbors.observationIndices[i], numberOfPositionsToPredict,
+                                                                            projectedPaths.xs, projectedPaths.ys, projectedPaths.offset(i),
+                                                                            shooterX, shooterY, bulletSpeed);
+      } else {
+        projectedPaths.lengths[i] = projectEnemyFuturePositions(stateSeq, currentIndex, neighbors.observationIndices[i], numberOfPositionsToPredict,
+                                                                projectedPaths.xs, projectedPaths.ys, projectedPaths.offset(i));
+      }
+      projectedPaths.distances[i] = neighbors.distances[i];
+    }
+    projectedPaths.count = pathCount;
+    
+    if(tickBudget != null) {
+      tickBudget.stop(TickBudget.Stage.Project);
+    }
+    return projectedPaths;
+  }
+  
+  // Returns a cursor over the nearest neighbor's projected path, the same positions predictFutureMovement would return, but projected one at
+  // a time as the caller asks for them; a caller that stops early projects only what it used. The cursor is reused by the next call.
+  public ProjectionCursor projectFutureMovement(String enemyRobotName, int maximumNumberOfPositions) {
+    PredictionCache.Entry neighbors = findReplayableNeighbors(enemyRobotName, k);
+    if(neighbors != null && neighbors.count > 0) {
+      EnvironmentStateSequence stateSeq = getStateSequence(enemyRobotName);
+      int currentIndex = stateSeq.size() - 1;
+      int firstIndexToReplay = neighbors.observationIndices[0];
+      projectionCursor.reset(stateSeq, firstIndexToReplay, firstIndexToReplay + maximumNumberOfPositions,
+                             stateSeq.enemyXAt(currentIndex), stateSeq.enemyYAt(currentIndex),
+                             stateSeq.enemyHeadingAt(currentIndex) - stateSeq.enemyHeadingAt(firstIndexToReplay));
+    } else {
+      projectionCursor.clear();
+    }
+    return projectionCursor;
+  }
+  
+  // Returns up to 'neighborCount' nearest neighbors of the enemy's current state that are old enough to replay, nearest first, or null if
+  // nothing has been logged about the enemy. The answer is cached, and reused by every request for no more neighbors until the next observation.
+  // The query asks for at least minimumNeighborsPerQuery neighbors, so the answer may hold more than 'neighborCount'.
+  PredictionCache.Entry findReplayableNeighbors(String enemyRobotName, int neighborCount) {
+    neighborCount = Math.max(neighborCount, minimumNeighborsPerQuery);
+    PredictionCache.Entry neighbors = predictionCache.get(enemyRobotName, neighborCount, approximationEpsilon, maximumLeafVisits);
+    if(neighbors != null) {
+      return neighbors;
+    }
+    
+    EnvironmentStateSequence stateSeq = getStateSequence(enemyRobotName);
+    EnvironmentStateSequenceTree stateTree = getStateTree(enemyRobotName);
+    if(stateSeq == null || stateTree == null || stateSeq.size() == 0) {
+      return null;
+    }
+    int currentIndex = stateSeq.size() - 1;
+    double[] currentCompositeFeatureVector = featureVectorWindows.get(enemyRobotName).compositeFeatureVector();
+    
+    // 1. find index of the environment state tuple(s) that most closely resemble(s) (i.e. is/are the nearest neighbor(s) of) the current/most-recent environment state.
+    // We don't want to consider any of the states that were very very recent (and therefore too-near a neighbor) as neighbors,
+    // because we need some history *after* the movement. The tree's payloads are observation indices, so the query itself skips
+    // every observation after the newest one that is at least numberOfStatesToDiscard ticks old.
+    // If none is that old, only the oldest observation (index 0) is eligible; it has the most history after it.
+    int newestReplayableIndex = Math.max(0, stateSeq.lastIndexAtOrBefore(stateSeq.timeAt(currentIndex) - numberOfStatesToDiscard));
+    if(tickBudget != null) {
+      tickBudget.start(TickBudget.Stage.Query);
+    }
+    int count = stateTree.nearestNeighbor(currentCompositeFeatureVector, neighborCount, approximationEpsilon, maximumLeafVisits, newestReplayableIndex, nearestNeighbors);
+    if(tickBudget != null) {
+      tickBudget.stop(TickBudget.Stage.Query);
+    }
+    
+    // NOTE: nearestNeighbors is sorted by neighbor distance, in descending order. So, the nearest neighbors are at the end of the buffer.
+    if(neighborIndices.length < count) {
+      neighborIndices = new int[count];
+      neighborDistances = new double[count];
+    }
+    for(int i = 0; i < count; i++) {
+      neighborIndices[i] = nearestNeighbors.value(count - 1 - i);
+      neighborDistances[i] = nearestNeighbors.distance(count - 1 - i);
+    }
+    return predictionCache.put(enemyRobotName, neighborCount, approximationEpsilon, maximumLeafVisits, neighborIndices, neighborDistances, count);
+  }
+  
   // Returns a list of coordinates that represents the enemy's projected position in the future.
   //   Assuming time t represents the game time in the current turn (i.e. t = NOW):
   //     The first set of coordinates (in position 0 of the return value) represents the projected enemy position in the very next step of the game, at time t+1 = t+1+0.
   //     The second set of coordinates (in position 1 of the return value) represents the projected enemy position two steps in the future, at time t+2 = t+1+1.
   //     The i-th set of coordinates (in position i-1 of the return value) represents the projected enemy position at time t+1+i.
   //
-  // historicalStatesToReplay is a list of EnvironmentStateTuples that represent historical movement/position info. that we believe (hope) matches the enemy robot's next few steps.
-  //   The 0th element in historicalStatesToReplay represents the historical EnvironmentStateTuple that is the nearest neighbor of the current environment state tuple.
-  //   The 1st element through the last element in historicalStatesToReplay represents the historical enemy states that we use to "play out" from the current state.
-  public ArrayList<Point2D.Double> projectEnemyFuturePositions(EnvironmentStateTuple currentState, List<EnvironmentStateTuple> historicalStatesToReplay) {
-    ArrayList<Point2D.Double> projectedPositions = new ArrayList<Point2D.Double>();
-    Point2D.Double currentEnemyPosition = currentState.enemyRobot.position;
-    double currentEnemyHeading = currentState.enemyRobot.heading;
-    EnvironmentStateTuple prevState, nextState;
-    Point2D.Double prevPos, nextPos;
-    double prevHeading;
-    double distanceToNextPosition;
-    double bearingToNextPosition;
-    double differenceInHeading;
-    
-    for(int i = 1; i < historicalStatesToReplay.size(); i++) {   // start at index 1 because the first element is the nearest neighbor to the current state (the most recent state).
-      prevState = historicalStatesToReplay.get(i - 1);
-      nextState = historicalStatesToReplay.get(i);
-      
-      prevHeading = prevState.enemyRobot.heading;
-      differenceInHeading = nextState.enemyRobot.heading - prevHeading;
-      
-      prevPos = prevState.enemyRobot.position;
-      nextPos = nextState.enemyRobot.position;
-      
-      distanceToNextPosition = prevPos.distance(nextPos);
-      
-      bearingToNextPosition = Utils.bearingToPoint(nextPos, prevPos, prevHeading);
-      
-      currentEnemyPosition = Utils.pointAtBearing(bearingToNextPosition, distanceToNextPosition, currentEnemyPosition, currentEnemyHeading);
-      currentEnemyHeading = currentEnemyHeading + differenceInHeading;
-      
-      projectedPositions.add(currentEnemyPosition);
+  // The observations of stateSeq in the range [firstIndexToReplay, firstIndexToReplay + count) represent historical movement/position info. that we believe (hope) matches the enemy robot's next few steps.
+  //   The observation at firstIndexToReplay is the historical observation that is the nearest neighbor of the current environment state tuple (the observation at currentIndex).
+  //   The observations after it represent the historical enemy states that we use to "play out" from the current state.
+  // The positions are computed into the model's packed projectedXs/projectedYs buffers; the only objects allocated are the returned points.
+  public ArrayList<Point2D.Double> projectEnemyFuturePositions(EnvironmentStateSequence stateSeq, int currentIndex, int firstIndexToReplay, int count) {
+    if(projectedXs.length < count) {
+      projectedXs = new double[count];
+      projectedYs = new double[count];
+    }
+    int positionCount = projectEnemyFuturePositions(stateSeq, currentIndex, firstIndexToReplay, count, projectedXs, projectedYs, 0);
+    ArrayList<Point2D.Double> projectedPositions = new ArrayList<Point2D.Double>(positionCount);
+    for(int i = 0; i < positionCount; i++) {
+      projectedPositions.add(new Point2D.Double(projectedXs[i], projectedYs[i]));
     }
-    
     return projectedPositions;
   }
   
+  // Packed form of projectEnemyFuturePositions: writes the projected x and y coordinates into xs and ys (from index 'offset'), and returns how many
+  // positions it wrote (at most count - 1). Allocates nothing.
+  //
+  // Each historical step is replayed at the same bearing, relative to the enemy's heading, as it was originally taken, and the enemy's heading
+  // turns as it originally turned. So the projected path is the historical path rotated by the difference between the current heading and the
+  // heading at firstIndexToReplay, and moved to start at the enemy's current position: one sin/cos pair for the whole path, rather than an
+  // atan2, sin, cos and sqrt per step. The logged positions are already the running sum of the enemy's steps, so each projected position
+  // is read off its offset from firstIndexToReplay; no per-step distance, bearing or heading-delta needs to be stored or recomputed.
+  public int projectEnemyFuturePositions(EnvironmentStateSequence stateSeq, int currentIndex, int firstIndexToReplay, int count, double[] xs, double[] ys, int offset) {
+    double rotation = stateSeq.enemyHeadingAt(currentIndex) - stateSeq.enemyHeadingAt(firstIndexToReplay);
+    int endIndex = Math.min(firstIndexToReplay + count, stateSeq.size());
+    // start after firstIndexToReplay because that observation is the nearest neighbor to the current state (the most recent state).
+    return stateSeq.writeEnemyPath(firstIndexToReplay, endIndex, stateSeq.enemyXAt(currentIndex), stateSeq.enemyYAt(currentIndex), rotation, xs, ys, offset);
+  }
+
+  
+  // As projectEnemyFuturePositions, but stops after the first position a bullet of bulletSpeed fired now from (shooterX, shooterY) could have
+  // reached by then; the positions are produced one at a time by a ProjectionCursor, so the rest are never computed.
+  int projectEnemyFuturePositionsUntilReached(EnvironmentStateSequence stateSeq, int currentIndex, int firstIndexToReplay, int count, double[] xs, double[] ys, int offset,
+                                              double shooterX, double shooterY, double bulletSpeed) {
+    pathCursor.reset(stateSeq, firstIndexToReplay, firstIndexToReplay + count, stateSeq.enemyXAt(currentIndex), stateSeq.enemyYAt(currentIndex),
+                     stateSeq.enemyHeadingAt(currentIndex) - stateSeq.enemyHeadingAt(firstIndexToReplay));
+    int positionCount = 0;
+    while(pathCursor.next()) {
+      double x = pathCursor.x(), y = pathCursor.y();
+      xs[offset + positionCount] = x;
+      ys[offset + positionCount] = y;
+      positionCount++;
+      double dx = x - shooterX, dy = y - shooterY;
+      double reach = bulletSpeed * pathCursor.step();
+      if(dx * dx + dy * dy <= reach * reach) {
+        break;
+      }
+    }
+    return positionCount;
+  }
+  
+  // Puts observationSequence (e.g. a log saved in earlier rounds, whose times all precede this round's) in front of the observation history
+  // of robotName, and returns the tree that is to index it. The tree starts out with just the observations robotName has already logged this
+  // round, which are logged again after the loaded ones. Indexing the loaded observations takes far longer than a turn, so the caller adds them
+  // to the tree a few at a time (see ObservationLogLoader); until it has, queries find neighbors among fewer of them.
+  public EnvironmentStateSequenceTree loadStateSequence(String robotName, EnvironmentStateSequence observationSequence) {
+    Pair<EnvironmentStateSequence, EnvironmentStateSequenceTree> logged = observationLog.remove(robotName);
+    EnvironmentStateSequenceTree observationTree = new EnvironmentStateSequenceTree(numberOfStatesPerCompositeFeatureVector);
+    observationLog.put(robotName, new Pair<EnvironmentStateSequence, EnvironmentStateSequenceTree>(observationSequence, observationTree));
+    CompositeFeatureVectorWindow featureVectorWindow = new CompositeFeatureVectorWindow(numberOfStatesPerCompositeFeatureVector);
+    featureVectorWindow.fill(observationSequence);
+    featureVectorWindows.put(robotName, featureVectorWindow);
+    predictionCache.invalidate(robotName);
+    if(logged != null) {
+      EnvironmentStateSequence loggedSequence = logged.first;
+      for(int i = 0; i < loggedSequence.size(); i++) {
+        logStateObservation(robotName, loggedSequence.get(i));
+      }
+    }
+    return observationTree;
+  }
+  
+  // Moves the observation history of oldRobotName (e.g. a log loaded under its file name) to newRobotName.
+  public void renameRobot(String oldRobotName, String newRobotName) {
+    observationLog.put(newRobotName, observationLog.remove(oldRobotName));
+    featureVectorWindows.put(newRobotName, featureVectorWindows.remove(oldRobotName));
+    predictionCache.invalidate(oldRobotName);
+    predictionCache.invalidate(newRobotName);
+  }
+  
   public EnvironmentStateSequence getStateSequence(String robotName) {
     if(observationLog.containsKey(robotName)) {
       return observationLog.get(robotName).first;
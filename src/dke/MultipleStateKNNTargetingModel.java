@@ -1,26 +1,40 @@
 package dke;
 
 import java.awt.geom.Point2D;
-import java.util.ArrayList;
 
 import robocode.Rules;
 
 public class MultipleStateKNNTargetingModel implements TargetingModel<EnvironmentStateSequence, EnvironmentStateSequenceTree> {
   DkeRobot robot;
   public int numberOfPositionsToProjectIntoFuture;
+  InterceptSolver interceptSolver;
+  public int ensembleSize;     // how many neighbors' predictions to combine; 1 aims at the nearest neighbor's prediction alone
+  // buffers reused by every targetFirepowers call
+  double[] bulletSpeeds, headings, weights, halfWidths;
+  double[] singleFirepower, singleGunHeading;
   
   public MultipleStateKNNTargetingModel(DkeRobot robot, int numberOfPositionsToProjectIntoFuture) {
     this.robot = robot;
     this.numberOfPositionsToProjectIntoFuture = numberOfPositionsToProjectIntoFuture;
+    this.interceptSolver = new InterceptSolver();
+    this.ensembleSize = 1;
+    this.bulletSpeeds = new double[0];
+    this.headings = new double[0];
+    this.weights = new double[0];
+    this.halfWidths = new double[0];
+    this.singleFirepower = new double[1];
+    this.singleGunHeading = new double[1];
   }
   
   // This method returns the gun heading that the fire control system need to turn the gun to, and then fire.
   public Double target(String targetRobotName, MovementModel<EnvironmentStateSequence, EnvironmentStateSequenceTree> movementModel, double desiredFirepower) {
-    // 3. project the historical enemy movements identified in step 2 onto the enemey's current state
-    ArrayList<Point2D.Double> projectedEnemyPositions = movementModel.predictFutureMovement(targetRobotName, numberOfPositionsToProjectIntoFuture);
-//    System.out.println(projectedEnemyPositions.size());
+    if(ensembleSize > 1 && movementModel instanceof MultipleStateKNNMovementModel) {
+      return targetEnsemble(targetRobotName, (MultipleStateKNNMovementModel)movementModel, desiredFirepower);
+    }
     
-    // 4. identify where the enemy will be at the time my bullet is whizzing by.
+    // 3. project the historical enemy movements identified in step 2 onto the enemey's current state, one step at a time,
+    // 4. until we find where the enemy will be at the time my bullet is whizzing by.
+    ProjectionCursor projectedEnemyPositions = movementModel.projectFutureMovement(targetRobotName, numberOfPositionsToProjectIntoFuture);
     Point2D.Double projectedFutureEnemyCoordinates = estimateEnemyPositionInFuture(projectedEnemyPositions, desiredFirepower);
     
     if(projectedFutureEnemyCoordinates != null) {
@@ -33,30 +47,99 @@ public class MultipleStateKNNTargetingModel implements TargetingModel<Environmen
     return null;
   }
   
-  // projectedEnemyPositions is a list of coordinates that represents the enemy's projected position in the future.
-  //   Assuming time t represents the game time in the current turn (i.e. t = NOW):
-  //     The first set of coordinates (in position 0 of the return value) represents the projected enemy position in the very next step of the game, at time t+1 = t+1+0.
-  //     The second set of coordinates (in position 1 of the return value) represents the projected enemy position two steps in the future, at time t+2 = t+1+1.
-  //     The i-th set of coordinates (in position i-1 of the return value) represents the projected enemy position at time t+1+i.
-  public Point2D.Double estimateEnemyPositionInFuture(ArrayList<Point2D.Double> projectedEnemyPositions, double desiredFirepower) {
-    Point2D.Double currentPos = robot.currentCoords();
-    
-    double bulletVelocity = Rules.getBulletSpeed(desiredFirepower);
+  // Aims using the predictions of up to ensembleSize neighbors at once: each prediction gives a gun heading, and we return the heading
+  // that the most (and the nearest) neighbors agree on. Each heading is weighted by how near its neighbor is to the current state, and
+  // spread over the angle the enemy robot would cover at the predicted position, and the heading with the highest total weight
+  // (the peak of that density) wins.
+  public Double targetEnsemble(String targetRobotName, MultipleStateKNNMovementModel movementModel, double desiredFirepower) {
+    singleFirepower[0] = desiredFirepower;
+    if(targetFirepowers(targetRobotName, movementModel, singleFirepower, singleGunHeading)) {
+      return singleGunHeading[0];
+    }
+    return null;
+  }
+  
+  // Aims as targetEnsemble does, for each of 'firepowers' at once: the neighbors are found and their paths projected once, and the intercepts
+  // for every firepower's bullet speed are found in one pass over the paths. Writes each firepower's gun heading into gunHeadings (NaN for a
+  // firepower with no solution), and returns false if no firepower has a solution.
+  public boolean targetFirepowers(String targetRobotName, MultipleStateKNNMovementModel movementModel, double[] firepowers, double[] gunHeadings) {
+    double x = robot.getX();
+    double y = robot.getY();
+    if(bulletSpeeds.length < firepowers.length) {
+      bulletSpeeds = new double[firepowers.length];
+    }
+    double slowestBulletSpeed = Double.POSITIVE_INFINITY;
+    for(int f = 0; f < firepowers.length; f++) {
+      bulletSpeeds[f] = Rules.getBulletSpeed(firepowers[f]);
+      slowestBulletSpeed = Math.min(slowestBulletSpeed, bulletSpeeds[f]);
+    }
+    // every path only needs projecting until the slowest bullet catches up with it; the faster ones catch up sooner
+    ProjectedPaths predictions = movementModel.projectFutureMovements(targetRobotName, numberOfPositionsToProjectIntoFuture, ensembleSize, x, y, slowestBulletSpeed);
+    if(headings.length < predictions.count) {
+      headings = new double[predictions.count];
+      weights = new double[predictions.count];
+      halfWidths = new double[predictions.count];
+    }
     
-    for(int i = 0; i < projectedEnemyPositions.size(); i++) {
-      // if the bullet would have traveled a distance greater than or equal to the distance from the enemy's projected position, fire at that projected position. 
-      if(bulletVelocity * (i+1) >= currentPos.distance(projectedEnemyPositions.get(i))) {
-        // TODO: If this doesn't work well, we should probably return a point somewhere between projected points i-1 and i.
-        //       Since the bullet would have flown past projected point i, we can safely assume it should hit the robot
-        //       at some point between projected points i-1 and i.
-        return projectedEnemyPositions.get(i);
+    // where the bullet meets the enemy along each prediction, for each firepower, all found in one pass over the predictions
+    interceptSolver.solveAll(predictions, x, y, bulletSpeeds, firepowers.length);
+    boolean aimed = false;
+    for(int f = 0; f < firepowers.length; f++) {
+      int headingCount = 0;
+      for(int p = 0; p < predictions.count; p++) {
+        int answer = f * predictions.count + p;
+        if(!Double.isNaN(interceptSolver.interceptTimes[answer])) {
+          double interceptX = interceptSolver.interceptXs[answer], interceptY = interceptSolver.interceptYs[answer];
+          headings[headingCount] = Utils.headingToPoint(interceptX, interceptY, x, y);
+          weights[headingCount] = 1.0 / (1.0 + Math.sqrt(predictions.distances[p]));     // the neighbor distances are squared
+          halfWidths[headingCount] = Math.atan2(DkeRobot.ROBOT_WIDTH / 2, Point2D.distance(x, y, interceptX, interceptY));
+          headingCount++;
+        }
       }
+      
+      if(headingCount == 0) {
+        gunHeadings[f] = Double.NaN;
+        continue;
+      }
+      
+      int bestHeading = 0;
+      double bestDensity = Double.NEGATIVE_INFINITY;
+      for(int i = 0; i < headingCount; i++) {
+        double density = 0;
+        for(int j = 0; j < headingCount; j++) {
+          double spread = angleBetween(headings[i], headings[j]) / halfWidths[j];
+          density += weights[j] * Math.exp(-0.5 * spread * spread);
+        }
+        if(density > bestDensity) {
+          bestDensity = density;
+          bestHeading = i;
+        }
+      }
+      
+      gunHeadings[f] = headings[bestHeading];
+      aimed = true;
     }
+    return aimed;
+  }
+  
+  // Returns the difference between two headings, in the range [-PI, PI].
+  private static double angleBetween(double heading1, double heading2) {
+    double diff = heading1 - heading2;
+    return Math.atan2(Math.sin(diff), Math.cos(diff));
+  }
+  
+  // Returns where a bullet of desiredFirepower fired now meets the enemy along projectedEnemyPositions (its projected positions 1, 2, 3, ...
+  // ticks from now), or null if there are none. Advances projectedEnemyPositions only until the bullet could reach the enemy, so the
+  // positions after that are never projected, and interpolates between the last two positions for the exact meeting point.
+  public Point2D.Double estimateEnemyPositionInFuture(ProjectionCursor projectedEnemyPositions, double desiredFirepower) {
+    double bulletVelocity = Rules.getBulletSpeed(desiredFirepower);
     
-    if(projectedEnemyPositions.size() > 0) {
-      return projectedEnemyPositions.get(projectedEnemyPositions.size() - 1);
+    // the point between two projected positions where the bullet meets the enemy, or (if it never does) the last projected position
+    if(interceptSolver.solve(projectedEnemyPositions, robot.getX(), robot.getY(), bulletVelocity)) {
+      return new Point2D.Double(interceptSolver.interceptX, interceptSolver.interceptY);
     }
     
     return null;
   }
+
 }
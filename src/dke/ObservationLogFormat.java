@@ -0,0 +1,252 @@
+package dke;
+
+import java.awt.geom.Point2D;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// ObservationLogFormat reads and writes an EnvironmentStateSequence in a compact binary form, for keeping observation logs across rounds and battles.
+//
+// Layout (all inside a GZIP stream):
+//   int MAGIC, byte VERSION, int count
+//   the time column, then the enemy's x, y, heading, velocity and timeSinceLastShotFired columns, then the same five columns for self.
+// Each column is written as the zigzag varint-encoded difference between consecutive values, which for a robot moving at most 8 pixels
+// and 10 degrees a tick is one or two bytes. Positions and velocities are first quantized to 1/POSITION_SCALE, and headings to 1/HEADING_SCALE
+// radians, so a decoded sequence differs from the encoded one by at most half a quantum per value; times and timeSinceLastShotFired are exact.
+// An observation whose enemy or self position is NaN (a missing robot state) is listed by index after the columns, and decodes to NaN again.
+public class ObservationLogFormat {
+  public static final int MAGIC = 0x444b454f;     // "DKEO"
+  public static final byte VERSION = 1;
+  public static final double POSITION_SCALE = 1024;
+  public static final double HEADING_SCALE = 65536;
+  // the scales of a robot's {x, y, heading, velocity, timeSinceLastShotFired} columns
+  private static final double[] COLUMN_SCALES = {POSITION_SCALE, POSITION_SCALE, HEADING_SCALE, POSITION_SCALE, 1};
+
+  // Writes the observations of observationSequence in the range [startIndex, observationSequence.size()) to 'out'.
+  public static void write(EnvironmentStateSequence observationSequence, int startIndex, OutputStream out) throws IOException {
+    GZIPOutputStream gzip = new GZIPOutputStream(out);
+    DataOutputStream data = new DataOutputStream(gzip);
+    int count = observationSequence.size() - startIndex;
+    data.writeInt(MAGIC);
+    data.writeByte(VERSION);
+    data.writeInt(count);
+
+    long previous = 0;
+    for(int i = startIndex; i < observationSequence.size(); i++) {
+      previous = writeDelta(data, observationSequence.timeAt(i), previous);
+    }
+    writeRobotColumns(data, observationSequence, startIndex, true);
+    writeRobotColumns(data, observationSequence, startIndex, false);
+    writeMissingIndices(data, observationSequence, startIndex, true);
+    writeMissingIndices(data, observationSequence, startIndex, false);
+
+    data.flush();
+    gzip.finish();
+  }
+
+  // Returns the bytes write(observationSequence, startIndex, ...) would write.
+  public static byte[] encode(EnvironmentStateSequence observationSequence, int startIndex) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    write(observationSequence, startIndex, bytes);
+    return bytes.toByteArray();
+  }
+
+  public static EnvironmentStateSequence read(InputStream in) throws IOException {
+    Reader reader = new Reader(in);
+    reader.read(Integer.MAX_VALUE);
+    return reader.observationSequence();
+  }
+
+  // Reader decodes a log a slice at a time, for callers that cannot afford to decode a whole log in one turn: each read() decodes
+  // at most the given number of values (times, column values, or observations added to the sequence), and picks up where the last one stopped.
+  public static class Reader {
+    private static final int TIMES = 0;
+    private static final int MISSING_INDICES = 11;     // stages 1-5 are the enemy's columns, and 6-10 are self's
+    private static final int OBSERVATIONS = 12;
+    private static final int DONE = 13;
+
+    private final DataInputStream data;
+    private final int count;
+    private final long[] times;
+    private final double[][] enemyColumns;
+    private final double[][] selfColumns;
+    private final EnvironmentStateSequence observationSequence;
+    private int stage;
+    private int index;
+    private long previous;
+
+    // Reads the header; the rest of the log is decoded by read().
+    public Reader(InputStream in) throws IOException {
+      data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)));
+      if(data.readInt() != MAGIC) {
+        throw new IOException("Not an observation log");
+      }
+      byte version = data.readByte();
+      if(version != VERSION) {
+        throw new IOException("Unsupported observation log version " + version);
+      }
+      count = data.readInt();
+      if(count < 0) {
+        throw new IOException("Corrupt observation log: count " + count);
+      }
+      times = new long[count];
+      enemyColumns = new double[5][count];
+      selfColumns = new double[5][count];
+      observationSequence = new EnvironmentStateSequence();
+      observationSequence.ensureCapacity(count);
+      stage = TIMES;
+      index = 0;
+      previous = 0;
+    }
+
+    // Decodes up to valueCount more values, and returns true once the whole log is decoded.
+    public boolean read(int valueCount) throws IOException {
+      while(valueCount > 0 && stage < DONE) {
+        if(stage == MISSING_INDICES) {
+          readMissingIndices(data, count, enemyColumns);
+          readMissingIndices(data, count, selfColumns);
+        } else {
+          int endIndex = index + Math.min(valueCount, count - index);
+          valueCount -= endIndex - index;
+          if(stage == TIMES) {
+            for(; index < endIndex; index++) {
+              previous = times[index] = previous + readDelta(data);
+            }
+          } else if(stage < MISSING_INDICES) {
+            double[] column = stage <= 5 ? enemyColumns[stage - 1] : selfColumns[stage - 6];
+            double scale = COLUMN_SCALES[(stage - 1) % 5];
+            for(; index < endIndex; index++) {
+              previous += readDelta(data);
+              column[index] = previous / scale;
+            }
+          } else {
+            for(; index < endIndex; index++) {
+              observationSequence.add(robotState(enemyColumns, index), robotState(selfColumns, index), times[index]);
+            }
+          }
+          if(index < count) {
+            continue;
+          }
+        }
+        stage++;
+        index = 0;
+        previous = 0;
+      }
+      return stage == DONE;
+    }
+
+    // The decoded observations; complete once read() has returned true.
+    public EnvironmentStateSequence observationSequence() {
+      return observationSequence;
+    }
+  }
+
+  //************************** Columns ********************************
+
+  private static void writeRobotColumns(DataOutputStream data, EnvironmentStateSequence observationSequence, int startIndex, boolean enemy) throws IOException {
+    int endIndex = observationSequence.size();
+    long previous = 0;
+    for(int i = startIndex; i < endIndex; i++) {
+      previous = writeDelta(data, quantize(enemy ? observationSequence.enemyXAt(i) : observationSequence.selfXAt(i), POSITION_SCALE), previous);
+    }
+    previous = 0;
+    for(int i = startIndex; i < endIndex; i++) {
+      previous = writeDelta(data, quantize(enemy ? observationSequence.enemyYAt(i) : observationSequence.selfYAt(i), POSITION_SCALE), previous);
+    }
+    previous = 0;
+    for(int i = startIndex; i < endIndex; i++) {
+      previous = writeDelta(data, quantize(enemy ? observationSequence.enemyHeadingAt(i) : observationSequence.selfHeadingAt(i), HEADING_SCALE), previous);
+    }
+    previous = 0;
+    for(int i = startIndex; i < endIndex; i++) {
+      previous = writeDelta(data, quantize(enemy ? observationSequence.enemyVelocityAt(i) : observationSequence.selfVelocityAt(i), POSITION_SCALE), previous);
+    }
+    previous = 0;
+    for(int i = startIndex; i < endIndex; i++) {
+      previous = writeDelta(data, enemy ? observationSequence.enemyTimeSinceLastShotFiredAt(i) : observationSequence.selfTimeSinceLastShotFiredAt(i), previous);
+    }
+  }
+
+  private static void writeMissingIndices(DataOutputStream data, EnvironmentStateSequence observationSequence, int startIndex, boolean enemy) throws IOException {
+    int missingCount = 0;
+    for(int i = startIndex; i < observationSequence.size(); i++) {
+      if(isMissing(observationSequence, i, enemy)) {
+        missingCount++;
+      }
+    }
+    writeVarint(data, missingCount);
+    long previous = 0;
+    for(int i = startIndex; i < observationSequence.size(); i++) {
+      if(isMissing(observationSequence, i, enemy)) {
+        previous = writeDelta(data, i - startIndex, previous);
+      }
+    }
+  }
+
+  private static void readMissingIndices(DataInputStream data, int count, double[][] columns) throws IOException {
+    long missingCount = readVarint(data);
+    long index = 0;
+    for(long i = 0; i < missingCount; i++) {
+      index += readDelta(data);
+      if(index < 0 || index >= count) {
+        throw new IOException("Corrupt observation log: missing state index " + index);
+      }
+      columns[0][(int)index] = Double.NaN;
+      columns[1][(int)index] = Double.NaN;
+    }
+  }
+
+  private static boolean isMissing(EnvironmentStateSequence observationSequence, int index, boolean enemy) {
+    return enemy ? Double.isNaN(observationSequence.enemyXAt(index)) || Double.isNaN(observationSequence.enemyYAt(index))
+                 : Double.isNaN(observationSequence.selfXAt(index)) || Double.isNaN(observationSequence.selfYAt(index));
+  }
+
+  private static RobotStateTuple robotState(double[][] columns, int index) {
+    return new RobotStateTuple(new Point2D.Double(columns[0][index], columns[1][index]), columns[2][index], columns[3][index], (long)columns[4][index]);
+  }
+
+  // NaN (a missing position) quantizes to 0; it is restored from the missing-index list.
+  private static long quantize(double value, double scale) {
+    return Double.isNaN(value) ? 0 : Math.round(value * scale);
+  }
+
+  //************************** Varints ********************************
+
+  // Writes value - previous as a zigzag varint, and returns value (the next call's 'previous').
+  private static long writeDelta(DataOutputStream data, long value, long previous) throws IOException {
+    long delta = value - previous;
+    writeVarint(data, (delta << 1) ^ (delta >> 63));
+    return value;
+  }
+
+  private static long readDelta(DataInputStream data) throws IOException {
+    long zigzag = readVarint(data);
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+
+  private static void writeVarint(DataOutputStream data, long value) throws IOException {
+    while((value & ~0x7fL) != 0) {
+      data.writeByte((int)((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    data.writeByte((int)value);
+  }
+
+  private static long readVarint(DataInputStream data) throws IOException {
+    long value = 0;
+    for(int shift = 0; shift < 64; shift += 7) {
+      int b = data.readUnsignedByte();
+      value |= (long)(b & 0x7f) << shift;
+      if((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Corrupt observation log: varint too long");
+  }
+}
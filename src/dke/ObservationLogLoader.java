@@ -0,0 +1,127 @@
+package dke;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+// ObservationLogLoader loads the observation logs saved in earlier rounds into the KNN movement model a slice at a time, so that no turn
+// spends more than its share of time on it: decoding a log of ObservationLogStore.maximumSavedObservationCount observations and indexing
+// it takes hundreds of milliseconds, many times a turn's CPU allotment, and a robot that keeps overrunning its turns gets disabled.
+//
+// Each log is decoded first (which is quick), then put in front of whatever the movement model has logged about the same enemy this round,
+// and its observations are then added to the model's tree over the following turns. Until they all are, the model can aim with what it has:
+// its queries find neighbors among the old observations indexed so far, and among this round's.
+public class ObservationLogLoader {
+  private static final int DECODE_SLICE = 1024;     // values decoded between checks of the clock
+  private static final int INDEX_SLICE = 8;         // observations indexed between checks of the clock
+
+  public ObservationLogStore observationLogStore;
+  public MultipleStateKNNMovementModel movementModel;
+  ArrayList<File> pendingLogFiles;
+  // the log being loaded
+  String logName;
+  ObservationLogFormat.Reader reader;                 // while it is being decoded
+  EnvironmentStateSequence observationSequence;       // once it is decoded, while it is being indexed
+  EnvironmentStateSequenceTree observationTree;
+  CompositeFeatureVectorWindow featureVectorWindow;
+  int loadedCount;
+  int nextIndex;
+
+  public ObservationLogLoader(ObservationLogStore observationLogStore, MultipleStateKNNMovementModel movementModel) {
+    this.observationLogStore = observationLogStore;
+    this.movementModel = movementModel;
+    this.pendingLogFiles = new ArrayList<File>();
+    this.logName = null;
+    this.reader = null;
+    this.observationSequence = null;
+    this.observationTree = null;
+    this.featureVectorWindow = new CompositeFeatureVectorWindow(movementModel.numberOfStatesPerCompositeFeatureVector);
+    this.loadedCount = 0;
+    this.nextIndex = 0;
+  }
+
+  // Queues every log saved in the data directory for loading.
+  public void start() {
+    pendingLogFiles.addAll(observationLogStore.savedLogFiles());
+  }
+
+  public boolean isLoading() {
+    return !pendingLogFiles.isEmpty() || reader != null || observationSequence != null;
+  }
+
+  // Loads for about budgetNanos (the last slice may run a little over), and returns whether there is more to load.
+  public boolean loadFor(long budgetNanos) {
+    long deadline = System.nanoTime() + budgetNanos;
+    while(isLoading() && System.nanoTime() < deadline) {
+      if(observationSequence != null) {
+        indexSlice();
+      } else if(reader != null) {
+        decodeSlice();
+      } else {
+        open(pendingLogFiles.remove(pendingLogFiles.size() - 1));
+      }
+    }
+    return isLoading();
+  }
+
+  private void open(File file) {
+    logName = ObservationLogStore.logName(file);
+    try {
+      reader = observationLogStore.open(file);
+    } catch (IOException e) {
+      System.out.println("Could not load the observation log of " + logName + ": " + e);
+    }
+  }
+
+  private void decodeSlice() {
+    try {
+      if(!reader.read(DECODE_SLICE)) {
+        return;
+      }
+    } catch (IOException e) {
+      System.out.println("Could not load the observation log of " + logName + ": " + e);
+      reader = null;
+      return;
+    }
+    EnvironmentStateSequence decodedSequence = reader.observationSequence();
+    reader = null;
+    if(decodedSequence.size() == 0) {
+      return;
+    }
+
+    // the log is filed under its enemy's name if the enemy has been seen already, or else under its own name until warmStart finds out
+    // which enemy it belongs to
+    String robotName = logName;
+    for(String loggedRobotName : movementModel.observationLog.keySet()) {
+      if(ObservationLogStore.logName(loggedRobotName).equals(logName)) {
+        robotName = loggedRobotName;
+      }
+    }
+    ObservationLogStore.endBeforeRoundStart(decodedSequence);
+    loadedCount = decodedSequence.size();
+    nextIndex = 0;
+    featureVectorWindow.clear();
+    observationTree = movementModel.loadStateSequence(robotName, decodedSequence);
+    observationSequence = decodedSequence;
+  }
+
+  // Indexes the next few loaded observations, as logStateObservation would have when they were logged. Observations with fewer than
+  // numberOfStatesToDiscard observations after them in their round are left out, since there is too little of their path to replay;
+  // in a log from earlier rounds, these are the ends of the rounds, which no query's time cutoff would exclude.
+  private void indexSlice() {
+    int endIndex = Math.min(loadedCount, nextIndex + INDEX_SLICE);
+    for(; nextIndex < endIndex; nextIndex++) {
+      if(observationSequence.roundStartIndex(nextIndex) == nextIndex) {
+        featureVectorWindow.clear();
+      }
+      featureVectorWindow.add(observationSequence.get(nextIndex));
+      if(nextIndex < observationSequence.roundEndIndex(nextIndex) - movementModel.numberOfStatesToDiscard) {
+        observationTree.addPoint(featureVectorWindow.compositeFeatureVector(), nextIndex);
+      }
+    }
+    if(nextIndex == loadedCount) {
+      observationSequence = null;
+      observationTree = null;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package dke;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+
+import robocode.RobocodeFileOutputStream;
+
+// ObservationLogStore keeps each enemy's observation log in the robot's data directory (one ObservationLogFormat file per enemy),
+// so the KNN models can start a round, or a battle, with everything learned about that enemy so far instead of an empty log.
+//
+// save() runs at the end of a round. Robocode limits how much a robot may write to its data directory, so the logs share whatever
+// quota is left (plus the space the files being replaced already use), and a log that does not fit its share keeps only its most
+// recent observations. Decoding a log and indexing it takes far longer than a turn, so the logs are loaded by an ObservationLogLoader,
+// a slice per turn, rather than all at once at the start of a round.
+public class ObservationLogStore {
+  public static final String FILE_EXTENSION = ".obs";
+
+  public DkeRobot robot;
+  public int maximumSavedObservationCount;     // per enemy, to bound how many turns loading the log takes
+  public double quotaSafetyFactor;             // the fraction of the available quota that save() will use
+
+  public ObservationLogStore(DkeRobot robot) {
+    this.robot = robot;
+    this.maximumSavedObservationCount = 20000;
+    this.quotaSafetyFactor = 0.9;
+  }
+
+  // Returns the observation log files in the data directory; logName() of a file is the name of the log it holds.
+  public ArrayList<File> savedLogFiles() {
+    ArrayList<File> logFiles = new ArrayList<File>();
+    File directory = robot.getDataDirectory();
+    File[] files = directory != null ? directory.listFiles() : null;
+    if(files == null) {
+      return logFiles;
+    }
+    for(File file : files) {
+      if(file.getName().endsWith(FILE_EXTENSION) && file.length() > 0) {
+        logFiles.add(file);
+      }
+    }
+    return logFiles;
+  }
+
+  // Reads a saved log file into memory (a log is some tens of kilobytes), and returns a reader to decode it with a slice at a time.
+  public ObservationLogFormat.Reader open(File file) throws IOException {
+    byte[] bytes = new byte[(int)file.length()];
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      in.readFully(bytes);
+    } finally {
+      in.close();
+    }
+    return new ObservationLogFormat.Reader(new ByteArrayInputStream(bytes));
+  }
+
+  // Shifts the times of a loaded observation log to end EnvironmentStateSequence.ROUND_TIME_GAP ticks before the current round starts.
+  // The gap makes every loaded observation older than anything the round logs (the KNN models only replay observations older than their
+  // numberOfStatesToDiscard), and marks the round boundary, so no replayed path or composite feature vector runs from a saved round into this one.
+  public static void endBeforeRoundStart(EnvironmentStateSequence observationSequence) {
+    if(observationSequence.size() > 0) {
+      observationSequence.shiftTimes(-observationSequence.timeAt(observationSequence.size() - 1) - EnvironmentStateSequence.ROUND_TIME_GAP);
+    }
+  }
+
+  // Writes each robot's observation log to its file, within the robot's data quota.
+  public void save(Map<String, EnvironmentStateSequence> observationLogs) {
+    if(observationLogs.isEmpty()) {
+      return;
+    }
+
+    long availableBytes = robot.getDataQuotaAvailable();
+    for(String robotName : observationLogs.keySet()) {
+      File file = robot.getDataFile(fileName(robotName));
+      if(file != null && file.exists()) {
+        availableBytes += file.length();     // the file is about to be replaced
+      }
+    }
+    long bytesPerLog = (long)(availableBytes * quotaSafetyFactor) / observationLogs.size();
+
+    for(Map.Entry<String, EnvironmentStateSequence> entry : observationLogs.entrySet()) {
+      try {
+        byte[] bytes = encodeWithin(entry.getValue(), bytesPerLog);
+        if(bytes != null) {
+          RobocodeFileOutputStream out = new RobocodeFileOutputStream(robot.getDataFile(fileName(entry.getKey())));
+          try {
+            out.write(bytes);
+          } finally {
+            out.close();
+          }
+        }
+      } catch (IOException e) {
+        System.out.println("Could not save the observation log of " + entry.getKey() + ": " + e);
+      }
+    }
+  }
+
+  // Returns the encoding of the most recent observations of observationSequence that fits in maximumBytes, or null if none do.
+  private byte[] encodeWithin(EnvironmentStateSequence observationSequence, long maximumBytes) throws IOException {
+    int count = Math.min(observationSequence.size(), maximumSavedObservationCount);
+    while(count > 0) {
+      byte[] bytes = ObservationLogFormat.encode(observationSequence, observationSequence.size() - count);
+      if(bytes.length <= maximumBytes) {
+        return bytes;
+      }
+      // assume the size is proportional to the count, and aim a little under
+      count = Math.min(count - 1, (int)(count * (maximumBytes * 0.95 / bytes.length)));
+    }
+    return null;
+  }
+
+  // Robot names can contain characters (spaces, parentheses, ...) that do not belong in a file name.
+  public static String fileName(String robotName) {
+    return logName(robotName) + FILE_EXTENSION;
+  }
+
+  public static String logName(File file) {
+    String name = file.getName();
+    return name.substring(0, name.length() - FILE_EXTENSION.length());
+  }
+
+  public static String logName(String robotName) {
+    return robotName.replaceAll("[^A-Za-z0-9._-]", "_");
+  }
+}
@@ -0,0 +1,9 @@
+package dke;
+
+import java.awt.Graphics2D;
+
+// A component that draws debug graphics when the robot is painted.
+// Herb finds the Paintable components of its movement strategy and fire control system once, when it is initialized, and calls them every frame.
+public interface Paintable {
+  public void onPaint(Graphics2D g);
+}
@@ -0,0 +1,63 @@
+package dke;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Point2D;
+import java.util.List;
+
+// PositionOverlay draws a set of robot positions (e.g. an enemy's predicted path) as robot-sized squares, in one color and one draw call.
+// The positions are collected into one path, which is reused from frame to frame, so painting N positions costs a single Graphics2D.draw
+// instead of N drawRect calls.
+public class PositionOverlay {
+  public Color color;
+  public double width, height;
+  private GeneralPath path;
+  private int positionCount;
+
+  public PositionOverlay(Color color) {
+    this(color, DkeRobot.ROBOT_WIDTH, DkeRobot.ROBOT_HEIGHT);
+  }
+
+  public PositionOverlay(Color color, double width, double height) {
+    this.color = color;
+    this.width = width;
+    this.height = height;
+    this.path = new GeneralPath();
+    this.positionCount = 0;
+  }
+
+  public void clear() {
+    path.reset();
+    positionCount = 0;
+  }
+
+  // Adds a square centered on (x, y).
+  public void add(double x, double y) {
+    float left = (float)(x - width / 2), bottom = (float)(y - height / 2);
+    float right = (float)(left + width), top = (float)(bottom + height);
+    path.moveTo(left, bottom);
+    path.lineTo(right, bottom);
+    path.lineTo(right, top);
+    path.lineTo(left, top);
+    path.closePath();
+    positionCount++;
+  }
+
+  public void addAll(List<? extends Point2D> positions) {
+    for(int i = 0; i < positions.size(); i++) {
+      add(positions.get(i).getX(), positions.get(i).getY());
+    }
+  }
+
+  public int size() {
+    return positionCount;
+  }
+
+  public void paint(Graphics2D g) {
+    if(positionCount > 0) {
+      g.setColor(color);
+      g.draw(path);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package dke;
+
+import java.util.HashMap;
+
+// PredictionCache remembers, per enemy, the neighbors behind a movement model's most recent prediction (the observation indices it replays,
+// nearest first, and their distances from the current state), so that every consumer in a tick (aiming, painting, ...) shares one KNN query
+// instead of each repeating it. Projecting a neighbor's path is cheap next to finding the neighbor, so paths are not cached: each consumer
+// projects as many steps of them as it needs.
+//
+// An entry holds the answer to a query for some number of neighbors with some search settings. A request for no more neighbors, with the same
+// settings, is answered from it, since the nearest few of a larger answer are the answer to a smaller query.
+// The movement model invalidates an enemy's entry whenever it logs (or loads) an observation of that enemy, so an entry never outlives the
+// tick it was computed in. Each enemy has one entry, refilled in place by every put, so a steady stream of queries allocates nothing;
+// an entry returned by get or put is only valid until the next put for that enemy.
+public class PredictionCache {
+  public HashMap<String, Entry> entries;
+  public long hits;
+  public long misses;
+
+  public PredictionCache() {
+    entries = new HashMap<String, Entry>();
+    hits = 0;
+    misses = 0;
+  }
+
+  // Returns the cached neighbors of robotName if they answer a query for 'neighborCount' neighbors with the given search settings, or null.
+  public Entry get(String robotName, int neighborCount, double approximationEpsilon, int maximumLeafVisits) {
+    Entry entry = entries.get(robotName);
+    if(entry == null || !entry.valid || entry.requestedNeighborCount < neighborCount
+       || entry.approximationEpsilon != approximationEpsilon || entry.maximumLeafVisits != maximumLeafVisits) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry;
+  }
+
+  // Caches the answer to a query for 'requestedNeighborCount' neighbors: 'count' neighbors, nearest first.
+  public Entry put(String robotName, int requestedNeighborCount, double approximationEpsilon, int maximumLeafVisits,
+                   int[] observationIndices, double[] distances, int count) {
+    Entry entry = entries.get(robotName);
+    if(entry == null) {
+      entry = new Entry();
+      entries.put(robotName, entry);
+    }
+    entry.set(requestedNeighborCount, approximationEpsilon, maximumLeafVisits, observationIndices, distances, count);
+    return entry;
+  }
+
+  public void invalidate(String robotName) {
+    Entry entry = entries.get(robotName);
+    if(entry != null) {
+      entry.valid = false;
+    }
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  public static class Entry {
+    public boolean valid;
+    public int requestedNeighborCount;
+    public double approximationEpsilon;
+    public int maximumLeafVisits;
+    public int[] observationIndices;     // nearest neighbor first; only the first 'count' are neighbors
+    public double[] distances;
+    public int count;
+
+    public Entry() {
+      this.valid = false;
+      this.observationIndices = new int[0];
+      this.distances = new double[0];
+      this.count = 0;
+    }
+
+    // Copies the answer into this entry's arrays, growing them only when they are too small.
+    public void set(int requestedNeighborCount, double approximationEpsilon, int maximumLeafVisits, int[] observationIndices, double[] distances, int count) {
+      if(this.observationIndices.length < count) {
+        this.observationIndices = new int[count];
+        this.distances = new double[count];
+      }
+      System.arraycopy(observationIndices, 0, this.observationIndices, 0, count);
+      System.arraycopy(distances, 0, this.distances, 0, count);
+      this.requestedNeighborCount = requestedNeighborCount;
+      this.approximationEpsilon = approximationEpsilon;
+      this.maximumLeafVisits = maximumLeafVisits;
+      this.count = count;
+      this.valid = true;
+    }
+  }
+}
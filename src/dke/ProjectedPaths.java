@@ -0,0 +1,42 @@
+package dke;
+
+// ProjectedPaths holds several projected enemy paths (e.g. one per neighbor in an ensemble) packed into primitive arrays, for code that works
+// on all of them at once. Every path starts from the enemy's current position (startX, startY), at time 0; path p's i-th position
+// (i < lengths[p]), at time i + 1, is (xs[p * stride + i], ys[p * stride + i]). distances[p] is the (squared) distance of the neighbor
+// path p replays from the current state.
+public class ProjectedPaths {
+  public int count;
+  public int stride;
+  public double startX, startY;
+  public double[] xs, ys;
+  public int[] lengths;
+  public double[] distances;
+
+  public ProjectedPaths() {
+    count = 0;
+    stride = 0;
+    xs = ys = new double[0];
+    lengths = new int[0];
+    distances = new double[0];
+  }
+
+  // Empties this, and makes room for 'pathCapacity' paths of up to 'stride' positions each, starting from (startX, startY).
+  public void reset(int pathCapacity, int stride, double startX, double startY) {
+    if(lengths.length < pathCapacity) {
+      lengths = new int[pathCapacity];
+      distances = new double[pathCapacity];
+    }
+    if(xs.length < pathCapacity * stride) {
+      xs = new double[pathCapacity * stride];
+      ys = new double[pathCapacity * stride];
+    }
+    this.count = 0;
+    this.stride = stride;
+    this.startX = startX;
+    this.startY = startY;
+  }
+
+  public int offset(int path) {
+    return path * stride;
+  }
+}
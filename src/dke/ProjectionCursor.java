@@ -0,0 +1,89 @@
+package dke;
+
+// ProjectionCursor produces an enemy's projected path one position at a time, so a caller that only needs the first few positions
+// (e.g. a targeting model that stops once its bullet could reach the enemy) computes only those.
+//
+// The path is the enemy's logged path after one observation, rotated about that observation's position and moved to start at a new origin,
+// exactly as EnvironmentStateSequence.writeEnemyPath writes it. A movement model hands out one cursor, reset for each projection;
+// it is only valid until the model's next projectFutureMovement call.
+//
+// Usage:
+//   while(cursor.next()) {
+//     ... cursor.x(), cursor.y() is the projected position cursor.step() ticks from now ...
+//   }
+public class ProjectionCursor {
+  private EnvironmentStateSequence stateSeq;
+  private int nextIndex, endIndex;
+  private double originX, originY;
+  private double fromX, fromY;
+  private double sinRotation, cosRotation;
+  private double x, y;
+  private int step;
+
+  public ProjectionCursor() {
+    clear();
+  }
+
+  // Makes this an empty path.
+  public void clear() {
+    stateSeq = null;
+    nextIndex = endIndex = 0;
+    step = 0;
+    originX = originY = Double.NaN;
+    x = y = Double.NaN;
+  }
+
+  // Starts the path of stateSeq's observations after fromIndex, up to (but not including) toIndex, rotated clockwise by 'rotation' about the
+  // enemy's position at fromIndex and moved so that position is at (originX, originY). Like writeEnemyPath, the path ends early at the end
+  // of fromIndex's round.
+  public void reset(EnvironmentStateSequence stateSeq, int fromIndex, int toIndex, double originX, double originY, double rotation) {
+    this.stateSeq = stateSeq;
+    this.nextIndex = fromIndex + 1;
+    this.endIndex = Math.min(toIndex, stateSeq.roundEndIndex(fromIndex));
+    this.originX = originX;
+    this.originY = originY;
+    this.fromX = stateSeq.enemyXAt(fromIndex);
+    this.fromY = stateSeq.enemyYAt(fromIndex);
+    this.sinRotation = Math.sin(rotation);
+    this.cosRotation = Math.cos(rotation);
+    this.step = 0;
+    this.x = this.y = Double.NaN;
+  }
+
+  // Moves to the next projected position, and returns true, or returns false (leaving the last position current) at the end of the path.
+  public boolean next() {
+    if(nextIndex >= endIndex) {
+      return false;
+    }
+    double dx = stateSeq.enemyXAt(nextIndex) - fromX;
+    double dy = stateSeq.enemyYAt(nextIndex) - fromY;
+    x = originX + dx * cosRotation + dy * sinRotation;
+    y = originY + dy * cosRotation - dx * sinRotation;
+    nextIndex++;
+    step++;
+    return true;
+  }
+
+  // The enemy's position at step 0, i.e. now
+  public double originX() {
+    return originX;
+  }
+
+  public double originY() {
+    return originY;
+  }
+
+  public double x() {
+    return x;
+  }
+
+  public double y() {
+    return y;
+  }
+
+  // The number of positions produced so far; the current position is the enemy's projected position 'step' ticks from now.
+  // 0 before the first call to next(), and after it for an empty path.
+  public int step() {
+    return step;
+  }
+}
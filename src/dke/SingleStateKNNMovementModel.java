@@ -3,21 +3,29 @@ package dke;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 
-import dke.KdTree.Entry;
+import dke.FlatKdTree.QueryContext;
 
 public class SingleStateKNNMovementModel implements MovementModel {
   public DkeRobot robot;
   int k;
   int numberOfStatesToDiscard;
   public HashMap<String, Pair<EnvironmentStateSequence, EnvironmentStateTree>> observationLog;
+  QueryContext nearestNeighbors;
+  double[] currentFeatureVector;
+  double[] projectedXs, projectedYs;     // projection buffers, reused for every prediction
+  ProjectionCursor projectionCursor;
   
   public SingleStateKNNMovementModel(DkeRobot robot, int kNearestNeighbors, int numberOfStatesToDiscard) {
     this.robot = robot;
     this.k = kNearestNeighbors;
     this.numberOfStatesToDiscard = numberOfStatesToDiscard;
     this.observationLog = new HashMap<String, Pair<EnvironmentStateSequence, EnvironmentStateTree>>();
+    this.nearestNeighbors = new QueryContext();
+    this.currentFeatureVector = new double[EnvironmentStateTuple.DIMENSION_COUNT];
+    this.projectedXs = new double[0];
+    this.projectedYs = new double[0];
+    this.projectionCursor = new ProjectionCursor();
   }
   
   public void logStateObservation(String robotName, EnvironmentStateTuple observation) {
@@ -39,45 +47,59 @@ public class SingleStateKNNMovementModel implements MovementModel {
   // Returns a list of points representing the position history of the enemy robot.
   // The first point represents the position that most closely resembles the enemy bot's next position.
   public ArrayList<Point2D.Double> predictFutureMovement(String enemyRobotName, int numberOfPositionsToPredict) {
+    int tempFirstIndex = findReplayableNeighbor(enemyRobotName);
+    if(tempFirstIndex >= 0) {
+      EnvironmentStateSequence stateSeq = getStateSequence(enemyRobotName);
+      // 2. the observations in [tempFirstIndex, tempFirstIndex + numberOfPositionsToPredict) immediately follow (and include) the environment state tuple found in the previous step.
+      // 3. project the historical enemy movements identified in step 2 onto the enemey's current state
+      ArrayList<Point2D.Double> projectedEnemyPositions = projectEnemyFuturePositions(stateSeq, stateSeq.size() - 1, tempFirstIndex, numberOfPositionsToPredict);
+      
+      return projectedEnemyPositions;
+    }
+//    System.out.println("empty");
+    return new ArrayList<Point2D.Double>();
+  }
+  
+  // Returns a cursor over the same positions predictFutureMovement would return, projected one at a time as the caller asks for them.
+  // The cursor is reused by the next call.
+  public ProjectionCursor projectFutureMovement(String enemyRobotName, int maximumNumberOfPositions) {
+    int firstIndexToReplay = findReplayableNeighbor(enemyRobotName);
+    if(firstIndexToReplay >= 0) {
+      EnvironmentStateSequence stateSeq = getStateSequence(enemyRobotName);
+      int currentIndex = stateSeq.size() - 1;
+      projectionCursor.reset(stateSeq, firstIndexToReplay, firstIndexToReplay + maximumNumberOfPositions,
+                             stateSeq.enemyXAt(currentIndex), stateSeq.enemyYAt(currentIndex), 0.0);
+    } else {
+      projectionCursor.clear();
+    }
+    return projectionCursor;
+  }
+  
+  // Returns the index of the nearest neighbor of the enemy's current state that is old enough to replay, or -1 if nothing has been logged about the enemy.
+  int findReplayableNeighbor(String enemyRobotName) {
     EnvironmentStateSequence stateSeq = getStateSequence(enemyRobotName);
     if(stateSeq != null) {
-      EnvironmentStateTuple currentState = stateSeq.last();
+      int currentIndex = stateSeq.size() - 1;
       EnvironmentStateTree stateTree = getStateTree(enemyRobotName);
       
-      if(currentState != null && stateTree != null) {
+      if(currentIndex >= 0 && stateTree != null) {
         // 1. find index of the environment state tuple(s) that most closely resemble(s) (i.e. is/are the nearest neighbor(s) of) the current/most-recent environment state.
-        List<Entry<Integer>> nearestNeighbors = stateTree.nearestNeighbor(currentState.featureVector(), k + numberOfStatesToDiscard, true);
-//        System.out.println(nearestNeighbors.size());
-        // NOTE: nearestNeighbors is sorted by neighbor distance, in descending order. So, the nearest neighbors are at the end of the list.
+        // We don't want to consider any of the states that were very very recent (and therefore too-near a neighbor) as the nearest neighbor,
+        // because we need some history *after* the movement. The tree's payloads are observation indices, so the query itself skips
+        // every observation after the newest one that is at least numberOfStatesToDiscard ticks old.
+        // If none is that old, only the oldest observation (index 0) is eligible; it has the most history after it.
+        int newestReplayableIndex = Math.max(0, stateSeq.lastIndexAtOrBefore(stateSeq.timeAt(currentIndex) - numberOfStatesToDiscard));
+        stateSeq.writeFeatureVector(currentIndex, currentFeatureVector, 0);
+        int neighborCount = stateTree.nearestNeighbor(currentFeatureVector, k, 0.0, Integer.MAX_VALUE, newestReplayableIndex, nearestNeighbors);
+//        System.out.println(neighborCount);
+        // NOTE: nearestNeighbors is sorted by neighbor distance, in descending order. So, the nearest neighbors are at the end of the buffer.
         
-        if(nearestNeighbors.size() > 0) {
-          // find the nearest neighbor that was observed longer than 'numberOfPositionsToPredict' turns ago.
-          Entry<Integer> tempFirstIndex = null;
-          
-          // We don't want to consider any of the states that were very very recent (and therefore too-near a neighbor) as the nearest neighbor,
-          // because we need some history *after* the movement.
-          for(int i = nearestNeighbors.size() - 1; i >= 0 ; i--) {
-            tempFirstIndex = nearestNeighbors.get(i);
-            // if the observation at index i is at least as old or older than (current time - numberOfStatesToDiscard), then we want to consider it the nearest neighbor of interest.
-            if(stateSeq.get(tempFirstIndex.value).time <= currentState.time - numberOfStatesToDiscard) {
-              break;
-            }
-          }
-//          System.out.println(tempFirstIndex.value + ": " + stateSeq.get(tempFirstIndex.value).time + " " + currentState.time);
-          
-          // 2. identify the environment state tuples that immediately follow the environment state tuple found in the previous step.
-          List<EnvironmentStateTuple> historicalStatesWithWhichToPredictFuture = stateSeq.slice(tempFirstIndex.value, numberOfPositionsToPredict);
-//          System.out.println(historicalStatesWithWhichToPredictFuture.size());
-          
-          // 3. project the historical enemy movements identified in step 2 onto the enemey's current state
-          ArrayList<Point2D.Double> projectedEnemyPositions = projectEnemyFuturePositions(currentState, historicalStatesWithWhichToPredictFuture);
-          
-          return projectedEnemyPositions;
+        if(neighborCount > 0) {
+          return nearestNeighbors.value(neighborCount - 1);
         }
       }
     }
-//    System.out.println("empty");
-    return new ArrayList<Point2D.Double>();
+    return -1;
   }
   
   // Returns a list of coordinates that represents the enemy's projected position in the future.
@@ -86,30 +108,36 @@ public class SingleStateKNNMovementModel implements MovementModel {
   //     The second set of coordinates (in position 1 of the return value) represents the projected enemy position two steps in the future, at time t+2 = t+1+1.
   //     The i-th set of coordinates (in position i-1 of the return value) represents the projected enemy position at time t+1+i.
   //
-  // historicalStatesToReplay is a list of EnvironmentStateTuples that represent historical movement/position info. that we believe (hope) matches the enemy robot's next few steps.
-  //   The 0th element in historicalStatesToReplay represents the historical EnvironmentStateTuple that is the nearest neighbor of the current environment state tuple.
-  //   The 1st element through the last element in historicalStatesToReplay represents the historical enemy states that we use to "play out" from the current state.
-  public ArrayList<Point2D.Double> projectEnemyFuturePositions(EnvironmentStateTuple currentState, List<EnvironmentStateTuple> historicalStatesToReplay) {
-    ArrayList<Point2D.Double> projectedPositions = new ArrayList<Point2D.Double>();
-    Point2D.Double currentEnemyPosition = currentState.enemyRobot.position;
-    Point2D.Double prevPos, nextPos;
-    double distanceToNextPosition;
-    double headingToNextPosition;
+  // The observations of stateSeq in the range [firstIndexToReplay, firstIndexToReplay + count) represent historical movement/position info. that we believe (hope) matches the enemy robot's next few steps.
+  //   The observation at firstIndexToReplay is the historical observation that is the nearest neighbor of the current environment state tuple (the observation at currentIndex).
+  //   The observations after it represent the historical enemy states that we use to "play out" from the current state.
+  // The positions are computed into the model's projectedXs/projectedYs buffers; the only objects allocated are the returned points.
+  public ArrayList<Point2D.Double> projectEnemyFuturePositions(EnvironmentStateSequence stateSeq, int currentIndex, int firstIndexToReplay, int count) {
+    if(projectedXs.length < count) {
+      projectedXs = new double[count];
+      projectedYs = new double[count];
+    }
+    int endIndex = Math.min(firstIndexToReplay + count, stateSeq.size());
     
-    for(int i = 1; i < historicalStatesToReplay.size(); i++) {   // start at index 1 because the first element is the nearest neighbor to the current state (the most recent state).
-      prevPos = historicalStatesToReplay.get(i - 1).enemyRobot.position;
-      nextPos = historicalStatesToReplay.get(i).enemyRobot.position;
-      
-      distanceToNextPosition = prevPos.distance(nextPos);
-      headingToNextPosition = Utils.headingToPoint(nextPos, prevPos);
-      
-      currentEnemyPosition = Utils.pointAtHeading(headingToNextPosition, distanceToNextPosition, currentEnemyPosition);
-      
-      projectedPositions.add(currentEnemyPosition);
+    // each historical step is replayed with the same heading and length, i.e. the path is moved without rotating it.
+    // start after firstIndexToReplay because that observation is the nearest neighbor to the current state (the most recent state).
+    int positionCount = stateSeq.writeEnemyPath(firstIndexToReplay, endIndex, stateSeq.enemyXAt(currentIndex), stateSeq.enemyYAt(currentIndex), 0.0, projectedXs, projectedYs, 0);
+    ArrayList<Point2D.Double> projectedPositions = new ArrayList<Point2D.Double>(positionCount);
+    for(int i = 0; i < positionCount; i++) {
+      projectedPositions.add(new Point2D.Double(projectedXs[i], projectedYs[i]));
     }
     
     return projectedPositions;
   }
+
+  
+  // Replaces the observation history of robotName with observationSequence (e.g. history preloaded at round start), and indexes it
+  // with a balanced tree built in one pass, so the first query is as fast as the thousandth.
+  public void loadStateSequence(String robotName, EnvironmentStateSequence observationSequence) {
+    observationLog.put(robotName,
+                       new Pair<EnvironmentStateSequence, EnvironmentStateTree>(observationSequence,
+                                                                                EnvironmentStateTree.build(observationSequence, null, numberOfStatesToDiscard)));
+  }
   
   public EnvironmentStateSequence getStateSequence(String robotName) {
     if(observationLog.containsKey(robotName)) {
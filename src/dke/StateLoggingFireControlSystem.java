@@ -4,12 +4,16 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import robocode.Bullet;
+import robocode.RoundEndedEvent;
+import robocode.Rules;
 import robocode.ScannedRobotEvent;
+import robocode.SkippedTurnEvent;
 import robocode.util.Utils;
 
-public class StateLoggingFireControlSystem implements FireControlSystem {
+public class StateLoggingFireControlSystem implements FireControlSystem, Paintable {
   public enum State {
     Initial, ScanningForTarget, TargetAquired
   }
@@ -27,12 +31,23 @@ public class StateLoggingFireControlSystem implements FireControlSystem {
   public TargetingModel<EnvironmentStateSequence, EnvironmentStateSequenceTree> targetingModel;
   public int numberOfEnemyStepsToPredict;
   public int numberOfEnemyStepsToDiscard;
+  public int ensembleSize;
+  public TickBudget tickBudget;
+  public Double lastGunHeading;
+  public ObservationLogStore observationLogStore;
+  public ObservationLogLoader observationLogLoader;
+  public PositionOverlay predictedPositionOverlay;
+  public double[] candidateFirepowers;     // the firepowers aimWithBestGunAndFirepower chooses between
+  public VirtualGunArena virtualGuns;      // decides which targeting model, and which firepower, to shoot each enemy with
+  public int minimumResolvedBullets;       // virtual bullets a (gun, firepower) pair must have resolved before its hit rate is trusted
+  public double comfortableEnergy;         // below this much energy, every point we spend on a bullet counts for more
 
   public StateLoggingFireControlSystem(DkeRobot robot) {
     this.robot = robot;
     
     numberOfEnemyStepsToPredict = 60;
     numberOfEnemyStepsToDiscard = 60;
+    ensembleSize = 8;
     currentState = State.Initial;
     fireTime = 10000;
     firePower = 2.001;
@@ -40,10 +55,25 @@ public class StateLoggingFireControlSystem implements FireControlSystem {
     timeTargetLastSeen = 0;
     timeLastShotFired = 0;
     currentTarget = null;
+    lastGunHeading = null;
+    tickBudget = new TickBudget(2000000);     // 2ms of the turn's CPU allotment
+    observationLogStore = new ObservationLogStore(robot);
+    predictedPositionOverlay = new PositionOverlay(new Color(0xff, 0x14, 0x93, 0x80));      // deep pink
+    candidateFirepowers = new double[] {0.2, 1.01, 2.0, 3.0};
+    minimumResolvedBullets = 10;
+    comfortableEnergy = 50;
     
-//  targetingModel = new LinearTargetingModel(robot, 2);
     movementModel = new MultipleStateKNNMovementModel(robot, 30, 1, numberOfEnemyStepsToDiscard);
     targetingModel = new MultipleStateKNNTargetingModel(robot, numberOfEnemyStepsToPredict);
+    ((MultipleStateKNNMovementModel)movementModel).tickBudget = tickBudget;
+    observationLogLoader = new ObservationLogLoader(observationLogStore, (MultipleStateKNNMovementModel)movementModel);
+    
+    // targetingModel (the KNN ensemble) aims until another gun proves better against an enemy. The nearest neighbor gun shares
+    // the ensemble's KNN query through the movement model's prediction cache.
+    virtualGuns = new VirtualGunArena(256, candidateFirepowers, Math.hypot(robot.eastWall, robot.northWall));
+    virtualGuns.addGun(targetingModel);
+    virtualGuns.addGun(new MultipleStateKNNTargetingModel(robot, numberOfEnemyStepsToPredict));      // the nearest neighbor alone
+    virtualGuns.addGun(new LinearTargetingModel(robot, 2));
   }
   
   /*
@@ -53,6 +83,7 @@ public class StateLoggingFireControlSystem implements FireControlSystem {
   public void run() {
     switch(currentState) {
     case Initial:
+      observationLogLoader.start();
       scanForTargets();
       currentState = State.ScanningForTarget;
       break;
@@ -68,6 +99,11 @@ public class StateLoggingFireControlSystem implements FireControlSystem {
       }
       break;
     }
+    
+    // loading the logs saved in earlier rounds takes many turns' worth of CPU, so each turn loads them for at most the aiming pipeline's own budget
+    if(observationLogLoader.isLoading()) {
+      observationLogLoader.loadFor(tickBudget.tickBudgetNanos);
+    }
   }
   
   public void scanForTargets() {
@@ -87,10 +123,38 @@ public class StateLoggingFireControlSystem implements FireControlSystem {
       currentState = State.TargetAquired;
       timeTargetLastSeen = e.getTime();
       
+      tickBudget.beginTick();
+      tickBudget.start(TickBudget.Stage.Log);
       logTargetPosition(e);
+      tickBudget.stop(TickBudget.Stage.Log);
       tryToFireGun();
       trackTarget(e.getBearingRadians());
+      tickBudget.start(TickBudget.Stage.Aim);
       aimGun();     // aim gun every time we scan the enemy robot.
+      tickBudget.stop(TickBudget.Stage.Aim);
+      tickBudget.endTick();
+    }
+  }
+  
+  public void onSkippedTurn(SkippedTurnEvent e) {
+    tickBudget.onSkippedTurn();
+  }
+  
+  // save what we've learned about every enemy, so the next round (or battle) can start from it.
+  public void onRoundEnded(RoundEndedEvent e) {
+    HashMap<String, EnvironmentStateSequence> observationLogs = new HashMap<String, EnvironmentStateSequence>();
+    for(String enemyRobotName : ((MultipleStateKNNMovementModel)movementModel).observationLog.keySet()) {
+      observationLogs.put(enemyRobotName, movementModel.getStateSequence(enemyRobotName));
+    }
+    observationLogStore.save(observationLogs);
+  }
+  
+  // the first time we see an enemy this round, pick up its observation log from earlier rounds, if observationLogLoader has already
+  // filed it under the log's name (if it hasn't, the loader files it under the enemy's name when it gets to it).
+  public void warmStart(String enemyRobotName) {
+    String logName = ObservationLogStore.logName(enemyRobotName);
+    if(!logName.equals(enemyRobotName) && movementModel.getStateSequence(logName) != null) {
+      ((MultipleStateKNNMovementModel)movementModel).renameRobot(logName, enemyRobotName);
     }
   }
   
@@ -101,6 +165,10 @@ public class StateLoggingFireControlSystem implements FireControlSystem {
   public void logTargetPosition(ScannedRobotEvent e) {
     String enemyRobotName = e.getName();
     
+    if(movementModel.getStateSequence(enemyRobotName) == null) {
+      warmStart(enemyRobotName);
+    }
+    
     RobotStateTuple enemyRobotState = new RobotStateTuple(robot.pointAtBearing(e.getBearingRadians(), e.getDistance()),
                                                           e.getHeadingRadians(),
                                                           e.getVelocity());
@@ -110,6 +178,7 @@ public class StateLoggingFireControlSystem implements FireControlSystem {
                                                          e.getTime() - timeLastShotFired);
     EnvironmentStateTuple env = new EnvironmentStateTuple(enemyRobotState, selfRobotState, robot.getTime());     // e.getTime() keeps returning 0, so use robot.getTime() instead!
     movementModel.logStateObservation(enemyRobotName, env);
+    virtualGuns.update(enemyRobotName, env.time, enemyRobotState.position.x, enemyRobotState.position.y);
   }
   
   public Bullet tryToFireGun() {
@@ -130,16 +199,114 @@ public class StateLoggingFireControlSystem implements FireControlSystem {
   // this method tries to figure out where the enemy robot will be in the future, aims at that position, then fires.
   public void aimGun() {
     EnvironmentStateSequence stateSeq = movementModel.getStateSequence(currentTarget);
-    if(stateSeq != null && stateSeq.last() != null) {
-      setFirepower(robot.currentCoords().distance(stateSeq.last().enemyRobot.position));
+    if(stateSeq != null && stateSeq.size() > 0) {
+      int lastIndex = stateSeq.size() - 1;
+      setFirepower(robot.currentCoords().distance(stateSeq.enemyXAt(lastIndex), stateSeq.enemyYAt(lastIndex)));
+      
+      // when we're short on time, skip the prediction and hold last tick's aim
+      if(tickBudget.isApplied(TickBudget.Saving.ReuseLastSolution) && lastGunHeading != null) {
+        virtualGuns.clearAim();
+        aimAndFireAtHeading(lastGunHeading);
+        return;
+      }
+      applyTickBudget();
       
-      Double gunHeading = targetingModel.target(currentTarget, movementModel, firePower);
+      // aim every gun at every firepower (for the virtual bullets that go with the next shot), and shoot with the best of them;
+      // unless we're short on time, in which case only the gun that has hit this enemy most often at the distance's firepower aims
+      Double gunHeading;
+      if(tickBudget.isApplied(TickBudget.Saving.ShortHorizon)) {
+        virtualGuns.clearAim();
+        int bestGun = virtualGuns.bestGun(currentTarget, candidateIndex(firePower));
+        gunHeading = virtualGuns.guns.get(bestGun).target(currentTarget, movementModel, firePower);
+      } else {
+        virtualGuns.aim(currentTarget, movementModel);
+        gunHeading = aimWithBestGunAndFirepower();
+      }
       if(gunHeading != null /*&& robot.getGunTurnRemainingRadians() == 0*/) {
+        lastGunHeading = gunHeading;
         aimAndFireAtHeading(gunHeading);
       }
     }
   }
   
+  // Aims with whichever gun and firepower (of those virtualGuns has aimed) promise the most energy: what a hit is worth to us (the damage
+  // it deals plus the energy it returns), weighed by that pair's virtual hit rate against this enemy, less what the bullet costs us.
+  // A bullet's cost is its firepower, weighed up by comfortableEnergy / energy once we have less than comfortableEnergy, since running
+  // dry loses the round; a firepower we can't afford without disabling ourselves isn't considered.
+  // Until some pair has resolved minimumResolvedBullets virtual bullets, the hit rates mean little, so we keep the distance's firepower
+  // (set by setFirepower) and the gun that has done best with it.
+  // Sets firePower to the chosen firepower, and returns its gun heading (or null if there is nothing to aim at).
+  public Double aimWithBestGunAndFirepower() {
+    double energy = robot.getEnergy();
+    double energyCostWeight = Math.max(1, comfortableEnergy / Math.max(energy, 0.01));
+    
+    int bestGun = -1, bestFirepower = -1;
+    double bestExpectedGain = Double.NEGATIVE_INFINITY;
+    for(int gun = 0; gun < virtualGuns.guns.size(); gun++) {
+      for(int f = 0; f < candidateFirepowers.length; f++) {
+        double power = candidateFirepowers[f];
+        if(Double.isNaN(virtualGuns.aimHeading(gun, f)) || power >= energy
+           || virtualGuns.resolvedBullets(currentTarget, gun, f) < minimumResolvedBullets) {
+          continue;
+        }
+        double expectedGain = virtualGuns.hitRate(currentTarget, gun, f) * (Rules.getBulletDamage(power) + Rules.getBulletHitBonus(power))
+                              - energyCostWeight * power;
+        if(expectedGain > bestExpectedGain) {
+          bestExpectedGain = expectedGain;
+          bestGun = gun;
+          bestFirepower = f;
+        }
+      }
+    }
+    
+    if(bestGun < 0) {
+      bestFirepower = candidateIndex(firePower);
+      while(bestFirepower > 0 && candidateFirepowers[bestFirepower] >= energy) {
+        bestFirepower--;
+      }
+      bestGun = virtualGuns.bestGun(currentTarget, bestFirepower);
+    }
+    firePower = candidateFirepowers[bestFirepower];
+    double gunHeading = virtualGuns.aimHeading(bestGun, bestFirepower);
+    return Double.isNaN(gunHeading) ? null : Double.valueOf(gunHeading);
+  }
+  
+  // Returns the index of the candidate firepower nearest to 'power'.
+  public int candidateIndex(double power) {
+    int nearest = 0;
+    for(int i = 1; i < candidateFirepowers.length; i++) {
+      if(Math.abs(candidateFirepowers[i] - power) < Math.abs(candidateFirepowers[nearest] - power)) {
+        nearest = i;
+      }
+    }
+    return nearest;
+  }
+  
+  // Scales the KNN query and the prediction horizon to the savings the tick budget has in effect.
+  public void applyTickBudget() {
+    MultipleStateKNNMovementModel knnMovementModel = (MultipleStateKNNMovementModel)movementModel;
+    MultipleStateKNNTargetingModel knnTargetingModel = (MultipleStateKNNTargetingModel)targetingModel;
+    
+    if(tickBudget.isApplied(TickBudget.Saving.ApproximateQuery)) {
+      knnMovementModel.approximationEpsilon = tickBudget.approximationEpsilon;
+      knnMovementModel.maximumLeafVisits = tickBudget.maximumLeafVisits;
+    } else {
+      knnMovementModel.approximationEpsilon = 0.0;
+      knnMovementModel.maximumLeafVisits = Integer.MAX_VALUE;
+    }
+    
+    // a short horizon also means projecting only the nearest neighbor's movement, rather than the whole ensemble's
+    if(tickBudget.isApplied(TickBudget.Saving.ShortHorizon)) {
+      knnTargetingModel.numberOfPositionsToProjectIntoFuture = numberOfEnemyStepsToPredict / 2;
+      knnTargetingModel.ensembleSize = 1;
+    } else {
+      knnTargetingModel.numberOfPositionsToProjectIntoFuture = numberOfEnemyStepsToPredict;
+      knnTargetingModel.ensembleSize = ensembleSize;
+    }
+    // every gun's prediction this tick shares one neighbor query, big enough for the ensemble
+    knnMovementModel.minimumNeighborsPerQuery = knnTargetingModel.ensembleSize;
+  }
+  
   public void aimAndFireAtRobotBearing(double bearing) {
     double heading = robot.currentAbsoluteHeading() + bearing;
     aimAndFireAtHeading(heading);
@@ -165,15 +332,19 @@ public class StateLoggingFireControlSystem implements FireControlSystem {
   
   public Bullet fireGun() {
     timeLastShotFired = robot.getTime();
-    return robot.setFireBullet(firePower);
+    Bullet bullet = robot.setFireBullet(firePower);
+    if(bullet != null) {
+      virtualGuns.fire(currentTarget, timeLastShotFired, robot.getX(), robot.getY());
+    }
+    return bullet;
   }
   
   public void setFirepower(double distanceToEnemy) {
     if(distanceToEnemy < 200) {
       firePower = 3.0;
-    } else if (firePower < 300) {
+    } else if (distanceToEnemy < 300) {
       firePower = 2.0;
-    } else if (firePower < 400) {
+    } else if (distanceToEnemy < 400) {
       firePower = 1.01;
     } else {
       firePower = 0.2;
@@ -197,11 +368,11 @@ public class StateLoggingFireControlSystem implements FireControlSystem {
     g.setColor(new Color(0xff, 0x14, 0x93, 0x80));      // deep pink
     g.drawLine(x, y, (int)pt.getX(), (int)pt.getY());
     
-    ArrayList<Point2D.Double> projectedEnemyPosition = movementModel.predictFutureMovement(currentTarget, numberOfEnemyStepsToPredict);
-    double half = DkeRobot.ROBOT_WIDTH / 2;
-    for(int i = 0; i < projectedEnemyPosition.size(); i++) {
-      pt = projectedEnemyPosition.get(i);
-      g.drawRect((int)(pt.x - half), (int)(pt.y - half), (int)DkeRobot.ROBOT_WIDTH, (int)DkeRobot.ROBOT_HEIGHT);
-    }
+    // ask for the horizon aimGun used this tick, so the movement model answers from its prediction cache instead of searching again
+    int numberOfPositionsToPaint = ((MultipleStateKNNTargetingModel)targetingModel).numberOfPositionsToProjectIntoFuture;
+    ArrayList<Point2D.Double> projectedEnemyPosition = movementModel.predictFutureMovement(currentTarget, numberOfPositionsToPaint);
+    predictedPositionOverlay.clear();
+    predictedPositionOverlay.addAll(projectedEnemyPosition);
+    predictedPositionOverlay.paint(g);
   }
 }
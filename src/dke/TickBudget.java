@@ -0,0 +1,149 @@
+package dke;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// TickBudget measures how long each stage of the fire control pipeline takes on every tick, and decides how much work the
+// pipeline may do on the next tick, so that the robot degrades gracefully instead of overrunning its per-turn CPU allotment
+// and skipping turns. When a tick goes over budget, the saving applied is the one aimed at whichever stage has lately been taking
+// the most time, so e.g. a slow query gets approximated rather than every prediction cut short.
+public class TickBudget {
+  // Aim is timed around the whole of aiming, which runs the query and the projections; endTick() takes their time out of Aim's,
+  // so Aim's time is only what aiming itself costs (aiming the guns, and the virtual bullets' bookkeeping).
+  public enum Stage {
+    Log, Query, Project, Aim
+  }
+  
+  // The ways the pipeline can save time, each applied independently of the others.
+  public enum Saving {
+    ApproximateQuery,       // approximate KNN query with a bounded number of leaf visits; saves Query time
+    ShortHorizon,           // project the enemy's movement half as far into the future, from the nearest neighbor only, with the best
+                            // gun only; saves Project and Aim time
+    ReuseLastSolution       // skip the query and projection entirely, and re-aim at last tick's gun heading; the last resort
+  }
+  
+  private static final double SMOOTHING = 0.1;    // weight of the newest sample in the running averages
+  
+  public long tickBudgetNanos;
+  public int ticksUnderBudgetBeforeUpgrade;
+  public double approximationEpsilon;
+  public int maximumLeafVisits;
+  public ArrayList<Saving> savings;     // the savings in effect, in the order they were applied
+  
+  public long lastTickNanos;
+  public long[] lastStageNanos;
+  public double[] averageStageNanos;     // running average of each stage's time, over the ticks it ran
+  
+  long tickStartTime;
+  long[] stageStartTimes;
+  int ticksUnderBudget;
+  long tickCount;
+  
+  public TickBudget(long tickBudgetNanos) {
+    this.tickBudgetNanos = tickBudgetNanos;
+    this.ticksUnderBudgetBeforeUpgrade = 20;
+    this.approximationEpsilon = 0.5;
+    this.maximumLeafVisits = 64;
+    this.savings = new ArrayList<Saving>();
+    
+    int stageCount = Stage.values().length;
+    this.lastStageNanos = new long[stageCount];
+    this.averageStageNanos = new double[stageCount];
+    this.stageStartTimes = new long[stageCount];
+    this.lastTickNanos = 0;
+    this.ticksUnderBudget = 0;
+    this.tickCount = 0;
+  }
+  
+  public void beginTick() {
+    Arrays.fill(lastStageNanos, 0);
+    tickStartTime = System.nanoTime();
+  }
+  
+  public void start(Stage stage) {
+    stageStartTimes[stage.ordinal()] = System.nanoTime();
+  }
+  
+  // Stages may run more than once per tick; their times accumulate.
+  public void stop(Stage stage) {
+    lastStageNanos[stage.ordinal()] += System.nanoTime() - stageStartTimes[stage.ordinal()];
+  }
+  
+  // Records the tick's total time, and applies one more saving if the tick went over budget, or lifts the latest one after
+  // ticksUnderBudgetBeforeUpgrade consecutive ticks that used less than half of the budget.
+  // A stage that didn't run this tick (e.g. the query, while the last solution is reused) keeps its average, rather than having
+  // it pulled toward 0 by a time that says nothing about what running it would cost.
+  public void endTick() {
+    lastTickNanos = System.nanoTime() - tickStartTime;
+    tickCount++;
+    int aim = Stage.Aim.ordinal();
+    lastStageNanos[aim] = Math.max(0, lastStageNanos[aim] - lastStageNanos[Stage.Query.ordinal()] - lastStageNanos[Stage.Project.ordinal()]);
+    for(int i = 0; i < lastStageNanos.length; i++) {
+      if(lastStageNanos[i] > 0) {
+        averageStageNanos[i] += SMOOTHING * (lastStageNanos[i] - averageStageNanos[i]);
+      }
+    }
+    
+    if(lastTickNanos > tickBudgetNanos) {
+      degrade();
+    } else if(lastTickNanos < tickBudgetNanos / 2) {
+      ticksUnderBudget++;
+      if(ticksUnderBudget >= ticksUnderBudgetBeforeUpgrade) {
+        upgrade();
+      }
+    } else {
+      ticksUnderBudget = 0;
+    }
+  }
+  
+  // A skipped turn means we already overran the allotment, so back off right away. Turns skipped before the first tick is measured
+  // are start-up work (e.g. class loading and JIT warm-up), not the pipeline's.
+  public void onSkippedTurn() {
+    if(tickCount > 0) {
+      degrade();
+    }
+  }
+  
+  // Applies the saving aimed at the stage with the highest average time, of the stages whose saving isn't applied yet; once those
+  // are all applied (or the time goes to stages no saving helps, like Log), ReuseLastSolution.
+  public void degrade() {
+    Saving saving = Saving.ReuseLastSolution;
+    double mostNanos = 0;
+    for(Stage stage : Stage.values()) {
+      Saving stageSaving = savingFor(stage);
+      if(stageSaving != null && !isApplied(stageSaving) && averageStageNanos[stage.ordinal()] > mostNanos) {
+        saving = stageSaving;
+        mostNanos = averageStageNanos[stage.ordinal()];
+      }
+    }
+    if(!isApplied(saving)) {
+      savings.add(saving);
+    }
+    ticksUnderBudget = 0;
+  }
+  
+  // Lifts the most recently applied saving.
+  public void upgrade() {
+    if(!savings.isEmpty()) {
+      savings.remove(savings.size() - 1);
+    }
+    ticksUnderBudget = 0;
+  }
+  
+  public boolean isApplied(Saving saving) {
+    return savings.contains(saving);
+  }
+  
+  // Returns the saving that cuts a stage's time, or null if none does.
+  public static Saving savingFor(Stage stage) {
+    switch(stage) {
+    case Query:
+      return Saving.ApproximateQuery;
+    case Project:
+    case Aim:
+      return Saving.ShortHorizon;
+    default:
+      return null;
+    }
+  }
+}
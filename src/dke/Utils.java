@@ -10,8 +10,14 @@ public class Utils {
   public static double threePIoverTwo = 3 * Math.PI / 2.0;
 
   public static double headingToPoint(Point2D.Double destinationPoint, Point2D.Double originPoint) {
-    double rise = destinationPoint.x - originPoint.x;
-    double run = destinationPoint.y - originPoint.y;
+    return headingToPoint(destinationPoint.x, destinationPoint.y, originPoint.x, originPoint.y);
+  }
+  
+  // The primitive forms below take and return coordinates as doubles (or write them into a caller-owned point), so code in an inner loop
+  // can use them without allocating a Point2D.Double per call.
+  public static double headingToPoint(double destinationX, double destinationY, double originX, double originY) {
+    double rise = destinationX - originX;
+    double run = destinationY - originY;
     double angleRelativeToAbsoluteZero = Math.atan2(rise, run); // this is a bearing: -PI <= angle < PI
     if (angleRelativeToAbsoluteZero < 0) {
       return angleRelativeToAbsoluteZero + twoPI;
@@ -21,7 +27,11 @@ public class Utils {
   }
   
   public static double bearingToPoint(Point2D.Double destinationPoint, Point2D.Double originPoint, double originHeading) {
-    double diff = headingToPoint(destinationPoint, originPoint) - originHeading;
+    return bearingToPoint(destinationPoint.x, destinationPoint.y, originPoint.x, originPoint.y, originHeading);
+  }
+  
+  public static double bearingToPoint(double destinationX, double destinationY, double originX, double originY, double originHeading) {
+    double diff = headingToPoint(destinationX, destinationY, originX, originY) - originHeading;
     if(diff > PI) {
       return diff - twoPI;
     } else if(diff < -PI) {
@@ -32,9 +42,13 @@ public class Utils {
   }
   
   public static Point2D.Double pointAtHeading(double heading, double distance, Point2D.Double originPosition) {
-    double pX = originPosition.getX() + distance * Math.sin(heading);
-    double pY = originPosition.getY() + distance * Math.cos(heading);
-    return new Point2D.Double(pX, pY);
+    return pointAtHeading(heading, distance, originPosition.getX(), originPosition.getY(), new Point2D.Double());
+  }
+  
+  // Sets 'result' to the point 'distance' away from (originX, originY) at 'heading', and returns it.
+  public static Point2D.Double pointAtHeading(double heading, double distance, double originX, double originY, Point2D.Double result) {
+    result.setLocation(originX + distance * Math.sin(heading), originY + distance * Math.cos(heading));
+    return result;
   }
   
   public static Point2D.Double pointAtBearing(double bearing, double distance, Point2D.Double originPosition, double originHeading) {
@@ -0,0 +1,272 @@
+package dke;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import robocode.Rules;
+
+// VirtualGunArena pits several targeting models (guns) against each other, at each of several firepowers, so the fire control system can
+// shoot with whichever gun and firepower have been hitting each enemy most often. Every time the real gun fires, each gun fires a virtual
+// bullet at each firepower, along its own aim for that firepower, from the same place; as the enemy is observed, each virtual bullet is
+// checked against where the enemy really went, until it either hits or has flown past. Each (gun, firepower) pair keeps a rolling hit rate
+// per enemy, which is a direct measure of how likely a real bullet of that firepower, aimed by that gun, is to hit.
+//
+// A virtual bullet that can no longer be scored fairly is dropped without scoring: once it has flown maximumFlightDistance (it has left the
+// battlefield, e.g. because its enemy died or stopped being scanned), or if it flew past the enemy while the enemy went unobserved.
+//
+// The virtual bullets in flight live in a fixed-size pool of parallel primitive arrays, so firing and resolving them allocates nothing,
+// and resolving a tick's bullets is one pass over the pool with no trigonometry.
+//
+// Usage, each tick the enemy is scanned:
+//   arena.update(enemy, time, enemyX, enemyY);       resolve the bullets in flight against the enemy's observed position
+//   ... when the real gun fires: arena.fire(enemy, time, x, y);
+//   arena.aim(enemy, movementModel);                  aim every gun at every firepower, for the next shot
+//   ... pick a gun and firepower by hitRate(...), and aim the real gun at aimHeading(gun, firepower)
+public class VirtualGunArena {
+  public ArrayList<TargetingModel<EnvironmentStateSequence, EnvironmentStateSequenceTree>> guns;
+  public double[] firepowers;
+  public HashMap<String, Enemy> enemies;
+  public int ratingDepth;         // a hit rate is (roughly) the average over the pair's last ratingDepth resolved virtual bullets
+  public long droppedBullets;     // virtual bullets not fired because the pool was full
+  public double maximumFlightDistance;     // no bullet flies further than this (e.g. the battlefield's diagonal) before leaving the battlefield
+  public long expiredBullets;     // virtual bullets dropped without being scored
+
+  // every (gun, firepower) pair's gun heading for the next shot at aimedEnemy, as of the last aim() call, at index
+  // gun * firepowers.length + firepower; NaN for a pair with no solution
+  double[] aimHeadings;
+  double[] gunHeadings;           // one gun's headings, at every firepower
+  String aimedEnemy;
+
+  // the pool: virtual bullet i's fields are at index i of each array, for 0 <= i < bulletCount
+  int bulletCount;
+  int[] bulletPairs;              // gun * firepowers.length + firepower
+  int[] bulletEnemies;            // Enemy.id
+  long[] bulletFireTimes;
+  long[] bulletExpiryTimes;       // the time by which the bullet has flown maximumFlightDistance
+  double[] bulletOriginXs, bulletOriginYs;
+  double[] bulletSinHeadings, bulletCosHeadings;
+  double[] bulletSpeeds;
+
+  public VirtualGunArena(int maximumBulletsInFlight, double[] firepowers, double maximumFlightDistance) {
+    this.guns = new ArrayList<TargetingModel<EnvironmentStateSequence, EnvironmentStateSequenceTree>>();
+    this.firepowers = firepowers;
+    this.enemies = new HashMap<String, Enemy>();
+    this.ratingDepth = 30;
+    this.droppedBullets = 0;
+    this.maximumFlightDistance = maximumFlightDistance;
+    this.expiredBullets = 0;
+    this.aimHeadings = new double[0];
+    this.gunHeadings = new double[firepowers.length];
+    this.aimedEnemy = null;
+
+    bulletCount = 0;
+    bulletPairs = new int[maximumBulletsInFlight];
+    bulletEnemies = new int[maximumBulletsInFlight];
+    bulletFireTimes = new long[maximumBulletsInFlight];
+    bulletExpiryTimes = new long[maximumBulletsInFlight];
+    bulletOriginXs = new double[maximumBulletsInFlight];
+    bulletOriginYs = new double[maximumBulletsInFlight];
+    bulletSinHeadings = new double[maximumBulletsInFlight];
+    bulletCosHeadings = new double[maximumBulletsInFlight];
+    bulletSpeeds = new double[maximumBulletsInFlight];
+  }
+
+  // Adds a gun, and returns its index. Add every gun before the first call to aim().
+  public int addGun(TargetingModel<EnvironmentStateSequence, EnvironmentStateSequenceTree> gun) {
+    guns.add(gun);
+    aimHeadings = new double[guns.size() * firepowers.length];
+    clearAim();
+    return guns.size() - 1;
+  }
+
+  // Returns the index of the gun with the best hit rate against enemyName at the given firepower so far (the first gun, before any virtual
+  // bullet has been resolved).
+  public int bestGun(String enemyName, int firepower) {
+    Enemy enemy = enemies.get(enemyName);
+    if(enemy == null) {
+      return 0;
+    }
+    int bestGun = 0;
+    for(int gun = 1; gun < guns.size(); gun++) {
+      if(enemy.hitRates[pair(gun, firepower)] > enemy.hitRates[pair(bestGun, firepower)]) {
+        bestGun = gun;
+      }
+    }
+    return bestGun;
+  }
+
+  public double hitRate(String enemyName, int gun, int firepower) {
+    Enemy enemy = enemies.get(enemyName);
+    return enemy == null ? 0 : enemy.hitRates[pair(gun, firepower)];
+  }
+
+  // The number of virtual bullets behind hitRate(enemyName, gun, firepower)
+  public int resolvedBullets(String enemyName, int gun, int firepower) {
+    Enemy enemy = enemies.get(enemyName);
+    return enemy == null ? 0 : enemy.resolvedBullets[pair(gun, firepower)];
+  }
+
+  // Aims every gun at enemyName at every firepower, so the next fire() call can fire their virtual bullets. A KNN ensemble aims at
+  // every firepower in one sweep over its predictions; any other gun is asked once per firepower.
+  public void aim(String enemyName, MovementModel<EnvironmentStateSequence, EnvironmentStateSequenceTree> movementModel) {
+    aimedEnemy = enemyName;
+    for(int gun = 0; gun < guns.size(); gun++) {
+      TargetingModel<EnvironmentStateSequence, EnvironmentStateSequenceTree> targetingModel = guns.get(gun);
+      if(targetingModel instanceof MultipleStateKNNTargetingModel && ((MultipleStateKNNTargetingModel)targetingModel).ensembleSize > 1
+         && movementModel instanceof MultipleStateKNNMovementModel) {
+        ((MultipleStateKNNTargetingModel)targetingModel).targetFirepowers(enemyName, (MultipleStateKNNMovementModel)movementModel, firepowers, gunHeadings);
+      } else {
+        for(int firepower = 0; firepower < firepowers.length; firepower++) {
+          Double gunHeading = targetingModel.target(enemyName, movementModel, firepowers[firepower]);
+          gunHeadings[firepower] = gunHeading == null ? Double.NaN : gunHeading.doubleValue();
+        }
+      }
+      System.arraycopy(gunHeadings, 0, aimHeadings, pair(gun, 0), firepowers.length);
+    }
+  }
+
+  // The gun heading of 'gun' at 'firepower' from the last aim() call, or NaN if it had no solution (or there was no aim() since clearAim()).
+  public double aimHeading(int gun, int firepower) {
+    return aimHeadings[pair(gun, firepower)];
+  }
+
+  // Forgets the last aim, so the next fire() fires no virtual bullets (e.g. when there was no time to aim every gun this tick).
+  public void clearAim() {
+    aimedEnemy = null;
+    for(int i = 0; i < aimHeadings.length; i++) {
+      aimHeadings[i] = Double.NaN;
+    }
+  }
+
+  // Fires a virtual bullet for every (gun, firepower) pair aimed at enemyName by the last aim() call, from (x, y) at 'time'.
+  public void fire(String enemyName, long time, double x, double y) {
+    if(!enemyName.equals(aimedEnemy)) {
+      return;
+    }
+    Enemy enemy = enemy(enemyName);
+    for(int pair = 0; pair < aimHeadings.length; pair++) {
+      if(Double.isNaN(aimHeadings[pair])) {
+        continue;
+      }
+      if(bulletCount == bulletPairs.length) {
+        droppedBullets++;
+        continue;
+      }
+      int i = bulletCount++;
+      bulletPairs[i] = pair;
+      bulletEnemies[i] = enemy.id;
+      bulletFireTimes[i] = time;
+      bulletOriginXs[i] = x;
+      bulletOriginYs[i] = y;
+      bulletSinHeadings[i] = Math.sin(aimHeadings[pair]);
+      bulletCosHeadings[i] = Math.cos(aimHeadings[pair]);
+      bulletSpeeds[i] = Rules.getBulletSpeed(firepowers[pair % firepowers.length]);
+      bulletExpiryTimes[i] = time + (long)Math.ceil(maximumFlightDistance / bulletSpeeds[i]);
+    }
+  }
+
+  // Checks every virtual bullet in flight at enemyName against the enemy's observed position at 'time', and scores (and frees) the ones
+  // that hit it or have flown past it. Also drops every bullet, at any enemy, that has expired by 'time'.
+  //
+  // A bullet hits if, during the last tick, it passed within half a robot's width of the enemy's position; the position says nothing
+  // about where the enemy was any earlier than that. It has flown past once it is further from where it was fired than the enemy is
+  // (by more than half a robot): the enemy is slower than any bullet, so it can never again get in front of it. If it had already flown
+  // past by the last tick, and the enemy went unobserved for some of its flight, it may have hit or missed unseen, so it isn't scored.
+  public void update(String enemyName, long time, double enemyX, double enemyY) {
+    Enemy enemy = enemies.get(enemyName);
+    long previousTime = 0;
+    if(enemy != null) {
+      previousTime = enemy.lastUpdateTime;
+      enemy.lastUpdateTime = time;
+    }
+    double halfRobotWidth = DkeRobot.ROBOT_WIDTH / 2;
+
+    int i = 0;
+    while(i < bulletCount) {
+      long fireTime = bulletFireTimes[i];
+      // a bullet from an earlier round (time has started over) has expired too
+      if(bulletExpiryTimes[i] < time || fireTime > time) {
+        expiredBullets++;
+        free(i);
+        continue;
+      }
+      if(enemy == null || bulletEnemies[i] != enemy.id || fireTime == time) {
+        i++;
+        continue;
+      }
+      // the enemy's position in the bullet's frame: how far along its line of flight, and how far to one side of it
+      double dx = enemyX - bulletOriginXs[i];
+      double dy = enemyY - bulletOriginYs[i];
+      double along = dx * bulletSinHeadings[i] + dy * bulletCosHeadings[i];
+      double across = dx * bulletCosHeadings[i] - dy * bulletSinHeadings[i];
+      double fromDistance = bulletSpeeds[i] * (time - 1 - fireTime);
+      double toDistance = bulletSpeeds[i] * (time - fireTime);
+      boolean unobserved = Math.max(fireTime, previousTime) < time - 1;
+
+      if(Math.abs(across) <= halfRobotWidth && along >= fromDistance - halfRobotWidth && along <= toDistance + halfRobotWidth) {
+        resolve(enemy, i, 1.0);
+      } else if(unobserved && fromDistance > halfRobotWidth && (fromDistance - halfRobotWidth) * (fromDistance - halfRobotWidth) > dx * dx + dy * dy) {
+        expiredBullets++;
+        free(i);
+      } else if(toDistance > halfRobotWidth && (toDistance - halfRobotWidth) * (toDistance - halfRobotWidth) > dx * dx + dy * dy) {
+        resolve(enemy, i, 0.0);
+      } else {
+        i++;
+      }
+    }
+  }
+
+  // Scores virtual bullet i as a hit (1) or a miss (0) for its (gun, firepower) pair, and frees its slot.
+  void resolve(Enemy enemy, int i, double hit) {
+    int pair = bulletPairs[i];
+    enemy.resolvedBullets[pair]++;
+    enemy.hitRates[pair] += (hit - enemy.hitRates[pair]) / Math.min(enemy.resolvedBullets[pair], ratingDepth);
+    free(i);
+  }
+
+  // Frees virtual bullet i's slot by moving the last bullet into it.
+  void free(int i) {
+    int last = --bulletCount;
+    bulletPairs[i] = bulletPairs[last];
+    bulletEnemies[i] = bulletEnemies[last];
+    bulletFireTimes[i] = bulletFireTimes[last];
+    bulletExpiryTimes[i] = bulletExpiryTimes[last];
+    bulletOriginXs[i] = bulletOriginXs[last];
+    bulletOriginYs[i] = bulletOriginYs[last];
+    bulletSinHeadings[i] = bulletSinHeadings[last];
+    bulletCosHeadings[i] = bulletCosHeadings[last];
+    bulletSpeeds[i] = bulletSpeeds[last];
+  }
+
+  int pair(int gun, int firepower) {
+    return gun * firepowers.length + firepower;
+  }
+
+  Enemy enemy(String enemyName) {
+    Enemy enemy = enemies.get(enemyName);
+    if(enemy == null) {
+      enemy = new Enemy(enemies.size(), guns.size() * firepowers.length);
+      enemies.put(enemyName, enemy);
+    }
+    return enemy;
+  }
+
+  public int bulletsInFlight() {
+    return bulletCount;
+  }
+
+  // Each (gun, firepower) pair's record against one enemy
+  public static class Enemy {
+    public final int id;
+    public final double[] hitRates;
+    public final int[] resolvedBullets;
+    public long lastUpdateTime;
+
+    public Enemy(int id, int pairCount) {
+      this.id = id;
+      this.hitRates = new double[pairCount];
+      this.resolvedBullets = new int[pairCount];
+      this.lastUpdateTime = 0;
+    }
+  }
+}